@@ -0,0 +1,56 @@
+package com.java.multithreading;
+
+import com.java.multithreading.http.AdmissionControl;
+import com.java.multithreading.http.HttpResponse;
+import com.java.multithreading.http.Router;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overloads a CPU bound handler with far more clients than it can serve and compares each
+ * {@code --limit} setting: how many requests succeed, how many are shed, and the latency of the
+ * ones that succeed. Without a limit every request is accepted and latency grows with the
+ * backlog; with one, excess requests get an immediate 503 and served latency stays bounded.
+ *
+ *   java com.java.multithreading.AdmissionControlBenchmark [clients] [seconds] [cpuMicros]
+ */
+public class AdmissionControlBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    long cpuMicros = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+    Router router = new Router().add("/work", request -> {
+      long busyUntil = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(cpuMicros);
+      long work = 0;
+      while (System.nanoTime() < busyUntil) {
+        work += Long.numberOfTrailingZeros(work * 0x9e3779b97f4a7c15L + 1);
+      }
+      return HttpResponse.text(200, Long.toString(work));
+    });
+
+    MultiThreadedHttpServer.ENGINE = "nio";
+    MultiThreadedHttpServer.MAX_CONCURRENCY = 64;
+    MultiThreadedHttpServer.MAX_QUEUE = 64;
+    MultiThreadedHttpServer.MAX_QUEUE_WAIT_MILLIS = 100;
+    System.out.println(String.format("%d clients, %d us of cpu per request, %d handler threads",
+        clients, cpuMicros, MultiThreadedHttpServer.NUM_THREADS));
+    for (String limit : new String[] {"none", "fixed", "aimd:50", "gradient"}) {
+      try (ServerSocket probe = new ServerSocket(0)) {
+        MultiThreadedHttpServer.PORT = probe.getLocalPort();
+      }
+      MultiThreadedHttpServer.LIMIT = limit;
+      Executor executor = MultiThreadedHttpServer.startEngine(router);
+      InetSocketAddress address = new InetSocketAddress("localhost", MultiThreadedHttpServer.PORT);
+      LoadGenerator.Result result = LoadGenerator.run(address, clients, seconds, random -> "/work");
+      String settled = executor instanceof AdmissionControl
+          ? ", limit settled at " + ((AdmissionControl) executor).limit() : "";
+      System.out.println(String.format("  %-9s %s%s", limit, result, settled));
+      Thread.sleep(2000);
+    }
+    System.exit(0);
+  }
+}
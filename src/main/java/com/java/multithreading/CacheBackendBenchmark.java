@@ -0,0 +1,117 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.InMemoryBackend;
+import com.java.multithreading.cache.WriteBehindBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what batching buys against a slow backend: writes straight through to an
+ * {@link InMemoryBackend} against {@link Walmart#put} with write-behind, and cold reads one
+ * {@link Walmart#getEntry} at a time against {@link Walmart#getAll} batches.
+ *
+ *   java com.java.multithreading.CacheBackendBenchmark [threads] [seconds] [callMicros] [keyMicros] [batchSize]
+ */
+public class CacheBackendBenchmark {
+  private static final int KEYS = 10_000;
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    long callMicros = args.length > 2 ? Long.parseLong(args[2]) : 500;
+    long keyMicros = args.length > 3 ? Long.parseLong(args[3]) : 5;
+    int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+
+    InMemoryBackend direct = new InMemoryBackend(callMicros, keyMicros, TimeUnit.MICROSECONDS);
+    long writeThrough = run(threads, seconds, random -> {
+      String key = key(random.nextInt(KEYS));
+      direct.writeAll(Collections.singletonMap(key, "v" + random.nextInt()));
+    });
+    report("write-through", writeThrough, seconds, direct);
+
+    InMemoryBackend buffered = new InMemoryBackend(callMicros, keyMicros, TimeUnit.MICROSECONDS);
+    Walmart cache = new Walmart(buffered, KEYS);
+    WriteBehindBuffer writeBehind = cache.writeBehind(buffered, batchSize, 50, TimeUnit.MILLISECONDS);
+    long writes = run(threads, seconds, random -> cache.put(key(random.nextInt(KEYS)), "v" + random.nextInt()));
+    writeBehind.flush();
+    report("write-behind", writes, seconds, buffered);
+    System.out.println(String.format("  batches %,d, coalesced %,d, flush failures %d",
+        writeBehind.batches(), writeBehind.coalesced(), writeBehind.failures()));
+    cache.shutdown();
+
+    InMemoryBackend perKeySource = seeded(callMicros, keyMicros);
+    Walmart perKey = new Walmart(perKeySource, 1 << 22);
+    int[] next = {0};
+    long singleReads = run(threads, seconds, random -> perKey.getEntry(key(nextKey(next))));
+    report("read-through getEntry", singleReads, seconds, perKeySource);
+
+    InMemoryBackend batchedSource = seeded(callMicros, keyMicros);
+    Walmart batched = new Walmart(batchedSource, 1 << 22);
+    int[] nextBatch = {0};
+    long batchReads = run(threads, seconds, random -> {
+      List<String> keys = new ArrayList<>(batchSize);
+      for (int i = 0; i < batchSize; i++) {
+        keys.add(key(nextKey(nextBatch)));
+      }
+      batched.getAll(keys);
+    }) * batchSize;
+    report("read-through getAll", batchReads, seconds, batchedSource);
+  }
+
+  /** Hands out fresh keys so every read is a miss. */
+  private static synchronized int nextKey(int[] counter) {
+    return counter[0]++;
+  }
+
+  private static InMemoryBackend seeded(long callMicros, long keyMicros) {
+    InMemoryBackend backend = new InMemoryBackend(callMicros, keyMicros, TimeUnit.MICROSECONDS);
+    for (int i = 0; i < KEYS; i++) {
+      backend.seed(key(i), "v" + i);
+    }
+    return backend;
+  }
+
+  private static long run(int threads, int seconds, Operation operation) throws InterruptedException {
+    long[] counts = new long[threads];
+    List<Thread> workers = new ArrayList<>();
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    for (int t = 0; t < threads; t++) {
+      int worker = t;
+      Thread thread = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+          while (System.nanoTime() < deadline) {
+            operation.run(random);
+            counts[worker]++;
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      workers.add(thread);
+      thread.start();
+    }
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers.get(t).join();
+      total += counts[t];
+    }
+    return total;
+  }
+
+  private static void report(String name, long operations, int seconds, InMemoryBackend backend) {
+    System.out.println(String.format("%-22s %,12d ops (%,d/s), backend calls %,d, keys %,d",
+        name, operations, operations / seconds, backend.calls(), backend.keys()));
+  }
+
+  private static String key(int i) {
+    return "key-" + i;
+  }
+
+  private interface Operation {
+    void run(ThreadLocalRandom random) throws Exception;
+  }
+}
@@ -0,0 +1,137 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.CacheProtocol;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One partition of a {@link PartitionedCache}: a small TCP server in front of a local
+ * {@link DistributedCache}. Each connection has a thread reading its requests, which hands them
+ * to a worker pool as soon as they are read, so a slow load does not hold up the requests
+ * pipelined behind it.
+ *
+ * The pool has a fixed number of threads and a bounded queue of requests. When the queue is full the connection's thread runs the request itself and stops
+ * reading meanwhile, so clients that send faster than the node loads are slowed down by TCP
+ * instead of piling up threads.
+ */
+public class CacheNode implements Closeable {
+  public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 4;
+  public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+
+  private final DistributedCache cache;
+  private final ServerSocket serverSocket;
+  private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "cache-node-connection");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ExecutorService workers;
+
+  public CacheNode(int port, DistributedCache cache) throws IOException {
+    this(port, cache, DEFAULT_WORKER_THREADS, DEFAULT_MAX_QUEUED_REQUESTS);
+  }
+
+  /**
+   * @param workerThreads     threads running loads for all connections
+   * @param maxQueuedRequests loads waiting for a worker before connections run them themselves
+   */
+  public CacheNode(int port, DistributedCache cache, int workerThreads, int maxQueuedRequests) throws IOException {
+    this.cache = cache;
+    this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(maxQueuedRequests), runnable -> {
+          Thread thread = new Thread(runnable, "cache-node-worker");
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    this.serverSocket = new ServerSocket(port);
+  }
+
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  public void start() {
+    Thread acceptor = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          socket.setTcpNoDelay(true);
+          connections.execute(() -> serve(socket));
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    }, "cache-node-" + port());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  private void serve(Socket socket) {
+    try (Socket connection = socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+      while (true) {
+        int id = in.readInt();
+        byte op = in.readByte();
+        String key = new String(CacheProtocol.readBlock(in), StandardCharsets.UTF_8);
+        if (op == CacheProtocol.STATS) {
+          respond(out, id, CacheProtocol.OK, CacheProtocol.encodeStats(cache.stats()));
+        } else {
+          workers.execute(() -> get(out, id, key));
+        }
+      }
+    } catch (EOFException e) {
+      // client went away
+    } catch (IOException e) {
+      System.err.println("cache node " + port() + ": " + e);
+    }
+  }
+
+  private void get(DataOutputStream out, int id, String key) {
+    try {
+      String value = cache.getEntry(key);
+      if (value == null) {
+        respond(out, id, CacheProtocol.NULL, new byte[0]);
+      } else {
+        respond(out, id, CacheProtocol.OK, value.getBytes(StandardCharsets.UTF_8));
+      }
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        respond(out, id, CacheProtocol.ERROR, String.valueOf(e.getCause() != null ? e.getCause() : e)
+            .getBytes(StandardCharsets.UTF_8));
+      } catch (IOException ignored) {
+        // the reader side notices the broken connection
+      }
+    }
+  }
+
+  private void respond(DataOutputStream out, int id, byte status, byte[] payload) throws IOException {
+    synchronized (out) {
+      CacheProtocol.writeResponse(out, id, status, payload);
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    connections.shutdownNow();
+    workers.shutdownNow();
+  }
+}
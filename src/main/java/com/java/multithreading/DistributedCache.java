@@ -1,9 +1,15 @@
 package com.java.multithreading;
 
+import com.java.multithreading.cache.CacheStats;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 public interface DistributedCache {
   String getEntry(String key) throws ExecutionException, InterruptedException;
+  CompletableFuture<String> getEntryAsync(String key);
+  Map<String, String> getAll(Collection<String> keys) throws ExecutionException, InterruptedException;
   float  cacheHitRatio();
+  CacheStats stats();
 }
-
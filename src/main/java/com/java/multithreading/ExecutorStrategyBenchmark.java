@@ -0,0 +1,54 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.InMemoryBackend;
+import com.java.multithreading.http.ExecutionStrategy;
+import com.java.multithreading.http.HttpResponse;
+import com.java.multithreading.http.Router;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each {@link ExecutionStrategy} against a mixed handler: {@code cpuMicros} of computation
+ * followed by a blocking backend call of {@code ioMillis}, the shape of a search that misses its
+ * cache and fetches from a remote store. Compare throughput and tail latency per strategy.
+ *
+ *   java com.java.multithreading.ExecutorStrategyBenchmark [jdk|nio] [clients] [seconds] [threads] [cpuMicros] [ioMillis]
+ */
+public class ExecutorStrategyBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    MultiThreadedHttpServer.ENGINE = args.length > 0 ? args[0] : "nio";
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    MultiThreadedHttpServer.NUM_THREADS = args.length > 3 ? Integer.parseInt(args[3]) : 4 * Runtime.getRuntime().availableProcessors();
+    long cpuMicros = args.length > 4 ? Long.parseLong(args[4]) : 200;
+    long ioMillis = args.length > 5 ? Long.parseLong(args[5]) : 20;
+
+    InMemoryBackend backend = new InMemoryBackend(ioMillis, 0, TimeUnit.MILLISECONDS);
+    Router router = new Router().add("/mixed", request -> {
+      long busyUntil = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(cpuMicros);
+      long work = 0;
+      while (System.nanoTime() < busyUntil) {
+        work += Long.numberOfTrailingZeros(work * 0x9e3779b97f4a7c15L + 1);
+      }
+      backend.load("key");
+      return HttpResponse.text(200, Long.toString(work));
+    });
+
+    System.out.println(String.format("%s engine, %d clients, %d threads, %d us cpu + %d ms io per request%s",
+        MultiThreadedHttpServer.ENGINE, clients, MultiThreadedHttpServer.NUM_THREADS, cpuMicros, ioMillis,
+        ExecutionStrategy.virtualThreadsAvailable() ? "" : " (no virtual threads on this JDK)"));
+    for (ExecutionStrategy strategy : ExecutionStrategy.values()) {
+      try (ServerSocket probe = new ServerSocket(0)) {
+        MultiThreadedHttpServer.PORT = probe.getLocalPort();
+      }
+      MultiThreadedHttpServer.EXECUTION = strategy;
+      MultiThreadedHttpServer.startEngine(router);
+      InetSocketAddress address = new InetSocketAddress("localhost", MultiThreadedHttpServer.PORT);
+      LoadGenerator.run(address, clients, 1, random -> "/mixed");
+      System.out.println(String.format("  %-13s %s", strategy, LoadGenerator.run(address, clients, seconds, random -> "/mixed")));
+    }
+    System.exit(0);
+  }
+}
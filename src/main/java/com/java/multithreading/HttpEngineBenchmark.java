@@ -0,0 +1,74 @@
+package com.java.multithreading;
+
+import com.java.multithreading.search.MappedCorpus;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput and latency of {@code /search} on each engine of {@link MultiThreadedHttpServer}.
+ * Client threads each hold one keep-alive connection and send token queries back to back, which
+ * the index answers, so the numbers are mostly engine overhead. Optionally opens idle connections
+ * first, which the jdk engine tolerates less well than the selector loops.
+ *
+ *   java com.java.multithreading.HttpEngineBenchmark jdk|nio [clients] [seconds] [idleConnections] [logFile]
+ */
+public class HttpEngineBenchmark {
+  private static final String[] WORDS = {"ERROR", "INFO", "WARN", "spark", "flow", "etl", "job", "stage"};
+
+  public static void main(String[] args) throws Exception {
+    String engine = args.length > 0 ? args[0] : "nio";
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int idle = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+    Path log = args.length > 4 ? Path.of(args[4]) : generateLog();
+
+    try (ServerSocket probe = new ServerSocket(0)) {
+      MultiThreadedHttpServer.PORT = probe.getLocalPort();
+    }
+    MappedCorpus corpus = MappedCorpus.open(log);
+    MultiThreadedHttpServer.ENGINE = engine;
+    MultiThreadedHttpServer.startServer(corpus);
+    InetSocketAddress address = new InetSocketAddress("localhost", MultiThreadedHttpServer.PORT);
+    try (Socket warmup = new Socket(address.getAddress(), address.getPort())) {
+      LoadGenerator.get(warmup, "/search?word=ERROR");
+    }
+    Thread.sleep(2000);
+
+    List<Socket> idleSockets = new ArrayList<>();
+    for (int i = 0; i < idle; i++) {
+      idleSockets.add(new Socket(address.getAddress(), address.getPort()));
+    }
+
+    LoadGenerator.Result result = LoadGenerator.run(address, clients, seconds,
+        random -> "/search?word=" + WORDS[random.nextInt(WORDS.length)]);
+    System.out.println(String.format("%s: %d clients, %d idle connections, %d s", engine, clients, idle, seconds));
+    System.out.println("  " + result);
+    for (Socket socket : idleSockets) {
+      socket.close();
+    }
+    System.exit(0);
+  }
+
+  private static Path generateLog() throws IOException {
+    Path log = Files.createTempFile("http-engine-benchmark", ".log");
+    log.toFile().deleteOnExit();
+    Random random = new Random(1);
+    try (BufferedWriter writer = Files.newBufferedWriter(log)) {
+      for (int line = 0; line < 200_000; line++) {
+        for (int i = 0; i < 10; i++) {
+          writer.write(WORDS[random.nextInt(WORDS.length)]);
+          writer.write(i < 9 ? ' ' : '\n');
+        }
+      }
+    }
+    return log;
+  }
+}
@@ -0,0 +1,115 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.LatencyHistogram;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Closed-loop HTTP client for the server benchmarks: each client thread holds one keep-alive
+ * connection and sends the next GET as soon as the previous response is read.
+ */
+class LoadGenerator {
+
+  static final class Result {
+    final long requests;
+    final long errors;
+    final int seconds;
+    final LatencyHistogram.Snapshot latency;
+
+    Result(long requests, long errors, int seconds, LatencyHistogram.Snapshot latency) {
+      this.requests = requests;
+      this.errors = errors;
+      this.seconds = seconds;
+      this.latency = latency;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%,d requests (%,d/s), %,d non-200, 200 latency p50 %d us, p99 %d us, p99.9 %d us, max %d us",
+          requests, requests / seconds, errors, latency.percentile(50) / 1000, latency.percentile(99) / 1000,
+          latency.percentile(99.9) / 1000, latency.max() / 1000);
+    }
+  }
+
+  /** Runs the clients for the given time; {@code target} picks each request's path and query. */
+  static Result run(InetSocketAddress address, int clients, int seconds, Function<ThreadLocalRandom, String> target)
+      throws InterruptedException {
+    LatencyHistogram latency = new LatencyHistogram();
+    LongAdder requests = new LongAdder();
+    LongAdder errors = new LongAdder();
+    List<Thread> threads = new ArrayList<>();
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    for (int c = 0; c < clients; c++) {
+      Thread thread = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Socket socket = null;
+        try {
+          while (System.nanoTime() < deadline) {
+            if (socket == null) {
+              socket = new Socket(address.getAddress(), address.getPort());
+            }
+            long start = System.nanoTime();
+            int status = get(socket, target.apply(random));
+            requests.increment();
+            if (Math.abs(status) == 200) {
+              latency.record(System.nanoTime() - start);
+            } else {
+              errors.increment();
+            }
+            if (status < 0) {
+              socket.close();
+              socket = null;
+            }
+          }
+          if (socket != null) {
+            socket.close();
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return new Result(requests.sum(), errors.sum(), seconds, latency.snapshot());
+  }
+
+  /**
+   * Sends one request and reads the response through its body. Returns the status, negated if
+   * the server is closing the connection so the caller reconnects.
+   */
+  static int get(Socket socket, String target) throws IOException {
+    OutputStream out = socket.getOutputStream();
+    out.write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    out.flush();
+    InputStream in = socket.getInputStream();
+    StringBuilder head = new StringBuilder();
+    while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("connection closed");
+      }
+      head.append((char) b);
+    }
+    String headers = head.toString().toLowerCase();
+    int status = Integer.parseInt(headers.substring(9, 12));
+    int at = headers.indexOf("content-length:");
+    int length = at < 0 ? 0 : Integer.parseInt(headers.substring(at + 15, headers.indexOf('\r', at)).trim());
+    if (in.readNBytes(length).length != length) {
+      throw new IOException("truncated body");
+    }
+    return headers.contains("connection: close") ? -status : status;
+  }
+}
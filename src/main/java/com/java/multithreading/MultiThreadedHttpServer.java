@@ -1,73 +1,438 @@
 package com.java.multithreading;
 
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
+import com.java.multithreading.http.AdmissionControl;
+import com.java.multithreading.http.ConcurrencyLimit;
+import com.java.multithreading.http.ExecutionStrategy;
+import com.java.multithreading.http.HttpRequest;
+import com.java.multithreading.http.HttpResponse;
+import com.java.multithreading.http.JdkHttpEngine;
+import com.java.multithreading.http.NioHttpServer;
+import com.java.multithreading.http.RequestHandler;
+import com.java.multithreading.http.Router;
+import com.java.multithreading.http.ServerMetrics;
+import com.java.multithreading.search.CorpusSearch;
+import com.java.multithreading.search.FmIndex;
+import com.java.multithreading.search.Json;
+import com.java.multithreading.search.MappedCorpus;
+import com.java.multithreading.search.ShardedSearch;
+import com.java.multithreading.search.TokenIndex;
+import com.java.multithreading.search.TopTerms;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class MultiThreadedHttpServer {
 
   public static String book = "/Users/sandishkumarhn/Downloads/optik-dag-spark-flow-etl-correlate_optik-flow-etl-correlate_2019-11-05T01_47_37+00_00_1.log";
 
   public static int NUM_THREADS = 4;
+  public static int PORT = 8000;
+  /**
+   * {@code jdk} for {@code com.sun.net.httpserver}, or {@code nio} for {@link NioHttpServer}. Only
+   * {@code nio} sends {@code /raw} from the file to the socket without copying it through the heap.
+   */
+  public static String ENGINE = "jdk";
+  /** Runs the handlers for either engine, with {@link #NUM_THREADS} where the strategy has a size. */
+  public static ExecutionStrategy EXECUTION = ExecutionStrategy.FIXED;
+  /**
+   * Admission control in front of the handlers: {@code none}, or a {@link ConcurrencyLimit} spec
+   * ({@code fixed}, {@code aimd[:targetMillis]} or {@code gradient}) capped at {@link #MAX_CONCURRENCY}.
+   */
+  public static String LIMIT = "fixed";
+  public static int MAX_CONCURRENCY = 64;
+  public static int MAX_QUEUE = 256;
+  public static long MAX_QUEUE_WAIT_MILLIS = 1000;
+  /** Most {@code /search} results kept in the {@link Walmart} result cache; 0 disables it. */
+  public static long RESULT_CACHE_SIZE = 10_000;
+  /**
+   * Where the {@link FmIndex} for substring and prefix queries is kept: {@code auto} for next to
+   * the log file, {@code off}, or a path.
+   */
+  public static String FULL_TEXT = "auto";
+  /** Space-Saving counters {@code /top} keeps per summary, at least four per requested term. */
+  public static int TOP_CAPACITY = 8192;
+  /** How often to check the log file for appended bytes, in milliseconds; 0 serves it as it was at startup. */
+  public static long TAIL_MILLIS = 0;
+  /** How often a served directory is checked for log files that appeared or went away, in milliseconds. */
+  public static long RESCAN_MILLIS = 1000;
+
+  private static final String RAW_TYPE = "application/octet-stream";
+
+  /**
+   * {@code MultiThreadedHttpServer [logFile|directory] [--engine=jdk|nio] [--executor=fixed|stealing|virtual]
+   * [--threads=N] [--port=N] [--limit=none|fixed|aimd[:ms]|gradient] [--concurrency=N] [--queue=N]
+   * [--queue-wait=ms] [--result-cache=N] [--full-text=auto|off|path] [--tail[=ms]] [--rescan=ms]}
+   *
+   * Serve with {@code --engine=nio} when {@code /raw} carries real traffic: the default {@code jdk}
+   * engine can only copy it through a buffer on the heap.
+   */
   public static void main(String[] args) throws IOException {
-    String text = new String(Files.readAllBytes(Paths.get(book)));
-    startServer(text);
+    String file = book;
+    for (String arg : args) {
+      if(!arg.startsWith("--")) {
+        file = arg;
+        continue;
+      }
+      int equals = arg.indexOf('=');
+      String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+      String value = equals < 0 ? "" : arg.substring(equals + 1);
+      switch (name) {
+        case "engine": ENGINE = value; break;
+        case "executor": EXECUTION = ExecutionStrategy.parse(value); break;
+        case "threads": NUM_THREADS = Integer.parseInt(value); break;
+        case "port": PORT = Integer.parseInt(value); break;
+        case "limit": LIMIT = value; break;
+        case "concurrency": MAX_CONCURRENCY = Integer.parseInt(value); break;
+        case "queue": MAX_QUEUE = Integer.parseInt(value); break;
+        case "queue-wait": MAX_QUEUE_WAIT_MILLIS = Long.parseLong(value); break;
+        case "result-cache": RESULT_CACHE_SIZE = Long.parseLong(value); break;
+        case "full-text": FULL_TEXT = value; break;
+        case "tail": TAIL_MILLIS = value.isEmpty() ? 200 : Long.parseLong(value); break;
+        case "rescan": RESCAN_MILLIS = Long.parseLong(value); break;
+        default: throw new IllegalArgumentException("unknown option: " + arg);
+      }
+    }
+    Path path = Paths.get(file);
+    if(Files.isDirectory(path)) {
+      startServer(path, FULL_TEXT.equals("off") ? null : FULL_TEXT.equals("auto") ? path.resolve(".index") : Paths.get(FULL_TEXT));
+      return;
+    }
+    Path fullText = FULL_TEXT.equals("off") ? null : Paths.get(FULL_TEXT.equals("auto") ? file + ".fmi" : FULL_TEXT);
+    startServer(MappedCorpus.open(path), fullText);
+  }
+
+  public static void startServer(MappedCorpus corpus) throws IOException {
+    startServer(corpus, null);
+  }
+
+  /**
+   * Starts serving right away; the token index, and the full-text index unless it is already
+   * saved in {@code fullText}, are built in the background and until they are ready queries are
+   * answered by scanning the corpus. With {@link #TAIL_MILLIS} set, bytes appended to the file
+   * are picked up and indexed as they arrive.
+   *
+   * {@code /raw} serves the log itself, as far as it has been picked up, and honours a
+   * {@code Range} header so operators can fetch slices of it. With {@code --engine=nio} the bytes
+   * go from the file to the socket without being copied onto the heap; the {@code jdk} engine
+   * copies them through a buffer, and says so at startup.
+   */
+  public static void startServer(MappedCorpus corpus, Path fullText) throws IOException {
+    long start = System.nanoTime();
+    CorpusSearch search = new CorpusSearch(corpus, fullText);
+    if(TAIL_MILLIS > 0) {
+      search.tail(TAIL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    search.index().thenAccept(built -> System.out.println(String.format("indexed %,d tokens (%,d distinct) in %d ms",
+        built.tokens(), built.distinctTokens(), (System.nanoTime() - start) / 1_000_000)));
+    search.fullText().whenComplete((fm, e) -> {
+      if(e != null) {
+        System.err.println("full-text index " + fullText + " unavailable, scanning instead: " + e.getCause());
+      } else if(fm != null) {
+        System.out.println(String.format("full-text index %s ready in %d ms", fullText, (System.nanoTime() - start) / 1_000_000));
+      }
+    });
+    WordCounthandler counts = new WordCounthandler((word, mode) -> Long.toString(search.count(word, mode)),
+        search::version, false);
+    Router router = new Router()
+        .add("/search", counts)
+        .add("/batch", new BatchCountHandler(search::countAll))
+        .add("/top", new TopTermsHandler(search))
+        .add("/raw", request -> HttpResponse.file(request, search.corpus().channel(), search.corpus().size(), RAW_TYPE));
+    ServerMetrics metrics = register(router, counts);
+    metrics.counter("search_scanned_bytes_total", "Corpus bytes read by scans.", search::bytesScanned);
+    metrics.gauge("search_index_ready", "1 once the token index is built.", () -> search.index().isDone() ? 1 : 0);
+    metrics.gauge("search_full_text_ready", "1 once the full-text index is open.",
+        () -> search.fullText().getNow(null) != null ? 1 : 0);
+    metrics.gauge("search_corpus_bytes", "Size of the mapped corpus.", () -> search.corpus().size());
+
+    startEngine(router);
+  }
+
+  /**
+   * Serves every log file in the directory as a shard of a {@link ShardedSearch}, each indexed in
+   * the background like a single file, with their full-text indexes kept in {@code indexDirectory}.
+   * {@code /search} answers with the count per shard and the total, {@code /batch} with totals,
+   * {@code /shards} lists the shards with their sizes and {@code /raw?file=name} serves one of
+   * them as {@code /raw} does for a single file. The directory is checked for new and
+   * removed files every {@link #RESCAN_MILLIS}.
+   */
+  public static void startServer(Path directory, Path indexDirectory) throws IOException {
+    ShardedSearch shards = new ShardedSearch(indexDirectory, TAIL_MILLIS);
+    shards.sync(directory);
+    if(RESCAN_MILLIS > 0) {
+      shards.watch(directory, RESCAN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    WordCounthandler counts = new WordCounthandler((word, mode) -> toJson(shards.count(word, mode).get()),
+        shards::version, true);
+    Router router = new Router()
+        .add("/search", counts)
+        .add("/batch", new BatchCountHandler((words, mode) -> shards.countAll(words, mode).join()))
+        .add("/shards", request -> HttpResponse.json(Json.object(shards.sizes())))
+        .add("/raw", request -> {
+          String name = request.parameters().get("file");
+          if(name == null) {
+            return HttpResponse.text(400, "missing file");
+          }
+          MappedCorpus corpus = shards.corpus(name);
+          return corpus == null ? HttpResponse.text(404, "no shard " + name)
+              : HttpResponse.file(request, corpus.channel(), corpus.size(), RAW_TYPE);
+        });
+    ServerMetrics metrics = register(router, counts);
+    metrics.counter("search_scanned_bytes_total", "Corpus bytes read by scans.", shards::bytesScanned);
+    metrics.gauge("search_shards", "Files being served.", shards::shardCount);
+    metrics.gauge("search_shards_indexed", "Shards whose token index is built.", shards::indexedShards);
+    metrics.gauge("search_corpus_bytes", "Size of the mapped corpora.",
+        () -> shards.sizes().values().stream().mapToLong(Long::longValue).sum());
+
+    startEngine(router);
+  }
+
+  private static String toJson(ShardedSearch.Counts counts) {
+    StringBuilder json = new StringBuilder("{\"total\":").append(counts.total())
+        .append(",\"shards\":").append(Json.object(counts.shards())).append(",\"failed\":[");
+    for (String failed : counts.failed()) {
+      if(json.charAt(json.length() - 1) != '[') {
+        json.append(',');
+      }
+      Json.quote(json, failed);
+    }
+    return json.append("]}").toString();
+  }
+
+  /** Adds the {@code /metrics} route, with the {@code /search} result cache's metrics if it has one. */
+  private static ServerMetrics register(Router router, WordCounthandler counts) {
+    ServerMetrics metrics = router.metrics();
+    Walmart results = counts.results;
+    if(results != null) {
+      metrics.counter("search_result_cache_hits_total", "Lookups answered by a cached or in-flight result.",
+          () -> results.stats().hitCount());
+      metrics.counter("search_result_cache_misses_total", "Lookups that ran the count.", () -> results.stats().missCount());
+      metrics.gauge("search_result_cache_hit_ratio", "Hits over all lookups so far.", results::cacheHitRatio);
+      metrics.gauge("search_result_cache_size", "Results cached.", results::size);
+    }
+    router.add("/metrics", request -> new HttpResponse(200, "text/plain; version=0.0.4; charset=utf-8",
+        metrics.render().getBytes(StandardCharsets.UTF_8)));
+    return metrics;
+  }
+
+  /**
+   * Serves the routes on {@link #PORT} with the configured engine, execution strategy and
+   * admission control. Returns the executor the engine hands requests to, which is the
+   * {@link AdmissionControl} unless {@link #LIMIT} is {@code none}.
+   */
+  public static Executor startEngine(Router router) throws IOException {
+    ExecutorService pool = EXECUTION.create(NUM_THREADS);
+    Executor executor = LIMIT.equals("none") ? pool : new AdmissionControl(pool,
+        ConcurrencyLimit.parse(LIMIT, MAX_CONCURRENCY), MAX_QUEUE, MAX_QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    register(router.metrics(), pool, executor);
+    InetSocketAddress address = new InetSocketAddress(PORT);
+    if(ENGINE.equals("jdk") && router.routes().containsKey("/raw")) {
+      System.out.println("/raw is copied through the heap by the jdk engine; start with --engine=nio to send it zero-copy");
+    }
+    if(ENGINE.equals("nio")) {
+      new NioHttpServer(address, router, Runtime.getRuntime().availableProcessors(), executor).start();
+    } else if(ENGINE.equals("jdk")) {
+      JdkHttpEngine.start(address, router, executor);
+    } else {
+      pool.shutdown();
+      throw new IllegalArgumentException("unknown engine: " + ENGINE);
+    }
+    return executor;
+  }
+
+  private static void register(ServerMetrics metrics, ExecutorService pool, Executor executor) {
+    metrics.gauge("executor_threads", "Threads configured to run handlers.", () -> NUM_THREADS);
+    if(pool instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor threads = (ThreadPoolExecutor) pool;
+      metrics.gauge("executor_active_threads", "Threads running a handler.", threads::getActiveCount);
+      metrics.gauge("executor_queue_depth", "Tasks waiting in the pool's queue.", () -> threads.getQueue().size());
+    } else if(pool instanceof ForkJoinPool) {
+      ForkJoinPool threads = (ForkJoinPool) pool;
+      metrics.gauge("executor_active_threads", "Threads running a handler.", threads::getActiveThreadCount);
+      metrics.gauge("executor_queue_depth", "Tasks waiting in the pool's queues.",
+          () -> threads.getQueuedSubmissionCount() + threads.getQueuedTaskCount());
+    }
+    if(executor instanceof AdmissionControl) {
+      AdmissionControl admission = (AdmissionControl) executor;
+      metrics.gauge("admission_limit", "Current concurrency limit.", admission::limit);
+      metrics.gauge("admission_in_flight", "Admitted requests not yet finished.", admission::inFlight);
+      metrics.gauge("admission_queue_depth", "Requests waiting for a slot.", admission::queued);
+      metrics.counter("admission_admitted_total", "Requests given a slot.", admission::admitted);
+      metrics.counter("admission_shed_total", "Requests answered 503 without running.", admission::shed);
+    }
   }
 
-  public static void startServer(String text) throws IOException {
-    HttpServer server = HttpServer.create(new InetSocketAddress(8000), 0);
-    server.createContext("/search", new WordCounthandler(text));
+  /**
+   * {@code /search?word=w} returns how often the token w occurs, from the {@link TokenIndex}.
+   * Words that are not a single token, or {@code &mode=substring}, count every (overlapping)
+   * substring match instead, and {@code /search?prefix=p} (or {@code &mode=prefix}) the matches
+   * that start a token; both come from the {@link FmIndex} once it is ready.
+   *
+   * Answers are kept in a {@link Walmart} cache of {@link #RESULT_CACHE_SIZE} keyed by corpus
+   * version, mode and word, so an append to a tailed file makes earlier answers unreachable and
+   * they age out of the cache. Concurrent requests for a word that is being counted wait for that
+   * count.
+   */
+  private static class WordCounthandler implements RequestHandler {
+    /** Counts a word into the response body. */
+    interface Counter {
+      String count(String word, CorpusSearch.Mode mode) throws InterruptedException, ExecutionException;
+    }
+
+    private Counter counter;
+    private Supplier<?> version;
+    private boolean json;
+    private Walmart results;
 
-    Executor executor = Executors.newFixedThreadPool(NUM_THREADS);
-    server.setExecutor(executor);
-    server.start();
+    public WordCounthandler(Counter counter, Supplier<?> version, boolean json) {
+      this.counter = counter;
+      this.version = version;
+      this.json = json;
+      this.results = RESULT_CACHE_SIZE <= 0 ? null : new Walmart(key -> {
+        int versionEnd = key.indexOf(':');
+        int modeEnd = key.indexOf(':', versionEnd + 1);
+        return counter.count(key.substring(modeEnd + 1), CorpusSearch.Mode.valueOf(key.substring(versionEnd + 1, modeEnd)));
+      }, RESULT_CACHE_SIZE);
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) throws InterruptedException, ExecutionException {
+      Map<String, String> parameters = request.parameters();
+      String count;
+      try {
+        String word = parameters.get("word");
+        CorpusSearch.Mode mode = CorpusSearch.Mode.parse(parameters.get("mode"));
+        if(word == null && parameters.containsKey("prefix")) {
+          word = parameters.get("prefix");
+          mode = CorpusSearch.Mode.PREFIX;
+        }
+        if(word == null) {
+          throw new IllegalArgumentException("missing word");
+        }
+        count = results == null ? counter.count(word, mode) : cached(word, mode);
+      } catch (IllegalArgumentException e) {
+        return HttpResponse.text(400, e.getMessage());
+      }
+      return json ? HttpResponse.json(count) : HttpResponse.text(200, count);
+    }
+
+    private String cached(String word, CorpusSearch.Mode mode) throws InterruptedException, ExecutionException {
+      try {
+        return results.getEntry(version.get() + ":" + mode + ":" + word);
+      } catch (ExecutionException e) {
+        if(e.getCause() instanceof IllegalArgumentException) {
+          throw (IllegalArgumentException) e.getCause();
+        }
+        throw e;
+      }
+    }
   }
 
-  private static class WordCounthandler implements HttpHandler {
-    private String text;
+  /**
+   * {@code /batch?words=a,b,c}, or a POST with one word per line, returns a JSON object of
+   * word to count. Words are counted as by {@code /search}, all in a single pass.
+   */
+  private static class BatchCountHandler implements RequestHandler {
+    /** Counts every word, keeping their order. */
+    interface Counter {
+      Map<String, Long> countAll(List<String> words, CorpusSearch.Mode mode);
+    }
+
+    private Counter counter;
 
-    public WordCounthandler(String text) {
-      this.text = text;
+    public BatchCountHandler(Counter counter) {
+      this.counter = counter;
     }
 
     @Override
-    public void handle(HttpExchange httpExchange) throws IOException {
-      String query = httpExchange.getRequestURI().getQuery();
-      String[] keyValue = query.split("=");
-      String action = keyValue[0];
-      String word = keyValue[1];
-      if(!action.equalsIgnoreCase("word")) {
-        httpExchange.sendResponseHeaders(400, 0);
+    public HttpResponse handle(HttpRequest request) {
+      Map<String, String> parameters = request.parameters();
+      List<String> words = new ArrayList<>();
+      String listed = parameters.get("words");
+      if(listed != null && !listed.isEmpty()) {
+        words.addAll(Arrays.asList(listed.split(",")));
+      }
+      if(request.method().equals("POST")) {
+        for (String line : new String(request.body(), StandardCharsets.UTF_8).split("\r?\n")) {
+          if(!line.isEmpty()) {
+            words.add(line);
+          }
+        }
       }
 
-      long count = coutnWord(word);
+      Map<String, Long> counts;
+      try {
+        if(words.isEmpty()) {
+          throw new IllegalArgumentException("no words");
+        }
+        counts = counter.countAll(words, CorpusSearch.Mode.parse(parameters.get("mode")));
+      } catch (IllegalArgumentException e) {
+        return HttpResponse.text(400, e.getMessage());
+      }
+      return HttpResponse.json(Json.object(counts));
+    }
+  }
 
-      byte[] response = Long.toString(count).getBytes();
-      httpExchange.sendResponseHeaders(200, response.length);
-      OutputStream outputStream = httpExchange.getResponseBody();
-      outputStream.write(response);
-      outputStream.close();
+  /**
+   * {@code /top?k=n} returns the n most frequent tokens, 10 by default, as JSON with bounds on
+   * each count from a one-pass {@link TopTerms} summary. Results are kept per corpus version and
+   * k, and concurrent requests for the same k share one pass.
+   */
+  private static class TopTermsHandler implements RequestHandler {
+    private static final int MAX_K = 10_000;
+
+    private CorpusSearch search;
+    private Walmart results;
+
+    public TopTermsHandler(CorpusSearch search) {
+      this.search = search;
+      this.results = new Walmart(key -> {
+        int k = Integer.parseInt(key.substring(key.indexOf(':') + 1));
+        return toJson(TopTerms.compute(search.corpus(), k, Math.max(TOP_CAPACITY, 4 * k)));
+      }, 64);
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) throws InterruptedException, ExecutionException {
+      String k = request.parameters().getOrDefault("k", "10");
+      try {
+        int parsed = Integer.parseInt(k);
+        if(parsed < 1 || parsed > MAX_K) {
+          throw new NumberFormatException();
+        }
+        k = Integer.toString(parsed);
+      } catch (NumberFormatException e) {
+        return HttpResponse.text(400, "k must be 1 to " + MAX_K);
+      }
+      return HttpResponse.json(results.getEntry(search.version() + ":" + k));
     }
 
-    public long coutnWord(String word) {
-      long count = 0;
-      int index = 0;
-      while (index >= 0) {
-        index =  text.indexOf(word, index);
-        if (index >= 0) {
-          count++;
-          index++;
+    private static String toJson(TopTerms top) {
+      StringBuilder json = new StringBuilder("{\"tokens\":").append(top.tokens())
+          .append(",\"unlistedBound\":").append(top.unlistedBound()).append(",\"top\":[");
+      for (TopTerms.Term term : top.terms()) {
+        if(json.charAt(json.length() - 1) != '[') {
+          json.append(',');
         }
+        Json.quote(json.append("{\"term\":"), term.term()).append(",\"count\":").append(term.count())
+            .append(",\"lowerBound\":").append(term.lowerBound()).append('}');
       }
-      return count;
+      return json.append("]}").toString();
     }
   }
 }
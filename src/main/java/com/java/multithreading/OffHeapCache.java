@@ -0,0 +1,232 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.BatchLoad;
+import com.java.multithreading.cache.CacheLoader;
+import com.java.multithreading.cache.CacheStats;
+import com.java.multithreading.cache.OffHeapStore;
+import com.java.multithreading.cache.StatsCounter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link DistributedCache} that keeps loaded values serialized in direct memory instead of as
+ * {@code String}s in a heap map, so a large cache does not inflate old gen or full GC pauses.
+ *
+ * Only loads in flight are tracked on the heap: the first reader of a missing key runs the load,
+ * later readers of the same key wait on its {@link CompletableFuture}, and the result is copied into
+ * the {@link OffHeapStore} before the task is dropped. Values too large for a slab, and null
+ * values, are returned to the readers waiting on them but not cached.
+ */
+public class OffHeapCache implements DistributedCache {
+  public static final long DEFAULT_CAPACITY_BYTES = 64L << 20;
+
+  private final OffHeapStore store;
+  private final ConcurrentHashMap<String, CompletableFuture<String>> loading = new ConcurrentHashMap<>();
+  private final StatsCounter statsCounter = new StatsCounter();
+  private final Executor executor;
+  private final CacheLoader loader;
+
+  public OffHeapCache() {
+    this(DEFAULT_CAPACITY_BYTES);
+  }
+
+  public OffHeapCache(long capacityBytes) {
+    this(capacityBytes, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param executor runs {@link #getEntryAsync} loads
+   */
+  public OffHeapCache(long capacityBytes, Executor executor) {
+    this(null, capacityBytes, executor);
+  }
+
+  /**
+   * @param loader backend read on a miss; null leaves loading to {@link #load} and {@link #loadAll}
+   */
+  public OffHeapCache(CacheLoader loader, long capacityBytes, Executor executor) {
+    this.loader = loader;
+    this.executor = executor;
+    this.store = new OffHeapStore(capacityBytes, statsCounter::recordEviction);
+  }
+
+  @Override
+  public String getEntry(String key) throws ExecutionException, InterruptedException {
+    return lookup(key, Runnable::run).get();
+  }
+
+  @Override
+  public CompletableFuture<String> getEntryAsync(String key) {
+    return lookup(key, executor).copy();
+  }
+
+  private CompletableFuture<String> lookup(String key, Executor loadExecutor) {
+    String value = store.get(key);
+    if(value != null) {
+      statsCounter.recordHit();
+      return CompletableFuture.completedFuture(value);
+    }
+
+    CompletableFuture<String> task = new CompletableFuture<>();
+    CompletableFuture<String> inFlight = loading.putIfAbsent(key, task);
+    if(inFlight != null) {
+      statsCounter.recordHit();
+      return inFlight;
+    }
+
+    value = store.get(key);
+    if(value != null) {
+      statsCounter.recordHit();
+      task.complete(value);
+      loading.remove(key, task);
+      return task;
+    }
+    statsCounter.recordMiss();
+    try {
+      loadExecutor.execute(() -> settle(key, task, () -> loadAndStore(key)));
+    } catch (RejectedExecutionException e) {
+      // Fails this lookup and unmaps the task, so the key is not left waiting for a load that never runs.
+      settle(key, task, () -> {
+        throw e;
+      });
+    }
+    return task;
+  }
+
+  private void settle(String key, CompletableFuture<String> task, Callable<String> loader) {
+    try {
+      task.complete(loader.call());
+    } catch (Throwable e) {
+      task.completeExceptionally(e);
+    } finally {
+      loading.remove(key, task);
+    }
+  }
+
+  /**
+   * Serves what is already stored and loads the remaining keys through one {@link #loadAll}
+   * call, waiting on other readers' loads for keys that are already in flight.
+   */
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) throws ExecutionException, InterruptedException {
+    Map<String, String> result = new LinkedHashMap<>();
+    Map<String, CompletableFuture<String>> waiting = new LinkedHashMap<>();
+    Map<String, CompletableFuture<String>> created = new LinkedHashMap<>();
+    for (String key : keys) {
+      if(result.containsKey(key) || waiting.containsKey(key)) {
+        continue;
+      }
+      String value = store.get(key);
+      if(value != null) {
+        statsCounter.recordHit();
+        result.put(key, value);
+        continue;
+      }
+      CompletableFuture<String> task = new CompletableFuture<>();
+      CompletableFuture<String> inFlight = loading.putIfAbsent(key, task);
+      if(inFlight != null) {
+        statsCounter.recordHit();
+        waiting.put(key, inFlight);
+      } else {
+        statsCounter.recordMiss();
+        waiting.put(key, task);
+        created.put(key, task);
+      }
+    }
+
+    if(!created.isEmpty()) {
+      BatchLoad batch = new BatchLoad();
+      long start = System.nanoTime();
+      try {
+        Map<String, String> loaded = loadAll(Collections.unmodifiableSet(created.keySet()));
+        statsCounter.recordLoadSuccess(System.nanoTime() - start);
+        for (Map.Entry<String, String> entry : loaded.entrySet()) {
+          if(entry.getValue() != null && created.containsKey(entry.getKey())) {
+            store.put(entry.getKey(), entry.getValue());
+          }
+        }
+        batch.complete(loaded);
+      } catch (Exception | Error e) {
+        statsCounter.recordLoadFailure(System.nanoTime() - start);
+        batch.fail(e);
+      }
+      for (Map.Entry<String, CompletableFuture<String>> entry : created.entrySet()) {
+        settle(entry.getKey(), entry.getValue(), () -> batch.valueOf(entry.getKey()));
+      }
+    }
+
+    for (Map.Entry<String, CompletableFuture<String>> entry : waiting.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().get());
+    }
+    return result;
+  }
+
+  /**
+   * Loads the entry from the backend; runs once per missing key, on the first reader's thread
+   * for {@link #getEntry} and on the cache's executor for {@link #getEntryAsync}. The default
+   * asks the {@link CacheLoader}, or returns null if there is none.
+   */
+  protected String load(String key) throws Exception {
+    return loader == null ? null : loader.load(key);
+  }
+
+  /**
+   * Loads several entries in one backend call; the default asks the {@link CacheLoader}, or
+   * falls back to one {@link #load} per key.
+   */
+  protected Map<String, String> loadAll(Set<String> keys) throws Exception {
+    if (loader != null) {
+      return loader.loadAll(keys);
+    }
+    Map<String, String> values = new HashMap<>();
+    for (String key : keys) {
+      values.put(key, load(key));
+    }
+    return values;
+  }
+
+  private String loadAndStore(String key) throws Exception {
+    long start = System.nanoTime();
+    String value;
+    try {
+      value = load(key);
+    } catch (Exception | Error e) {
+      statsCounter.recordLoadFailure(System.nanoTime() - start);
+      throw e;
+    }
+    statsCounter.recordLoadSuccess(System.nanoTime() - start);
+    if(value != null) {
+      store.put(key, value);
+    }
+    return value;
+  }
+
+  public long size() {
+    return store.size();
+  }
+
+  public long reservedBytes() {
+    return store.reservedBytes();
+  }
+
+  @Override
+  public float cacheHitRatio() {
+    return (float) stats().hitRate();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return statsCounter.snapshot();
+  }
+}
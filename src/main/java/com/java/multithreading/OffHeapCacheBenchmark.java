@@ -0,0 +1,186 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.OffHeapStore;
+import com.java.multithreading.cache.Weigher;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares heap footprint and GC cost of {@link Walmart} and {@link OffHeapCache} holding the
+ * same entries under the same read load. Run each mode in its own JVM for clean numbers:
+ *
+ *   java -Xmx2g com.java.multithreading.OffHeapCacheBenchmark heap|offheap [entries] [valueBytes] [seconds]
+ *
+ * {@code mixed [megabytes]} instead checks that an {@link OffHeapStore} whose slabs were all
+ * claimed by small records still stores records of every other size, and times the writes.
+ * {@code large [valueMegabytes]} checks that a {@link Walmart} with a 256MB heap budget caches
+ * values that big; run it with {@code -XX:ActiveProcessorCount=32} to have many segments.
+ */
+public class OffHeapCacheBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    String mode = args.length > 0 ? args[0] : "offheap";
+    if (mode.equals("mixed")) {
+      mixedSizes(args.length > 1 ? Long.parseLong(args[1]) << 20 : 64L << 20);
+      return;
+    }
+    if (mode.equals("large")) {
+      largeValues(args.length > 1 ? Integer.parseInt(args[1]) << 20 : 2 << 20);
+      return;
+    }
+    int entries = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    int valueBytes = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    long baseline = usedHeapAfterGc();
+    DistributedCache cache = newCache(mode, entries, valueBytes);
+
+    long fillStart = System.nanoTime();
+    for (int i = 0; i < entries; i++) {
+      cache.getEntry(key(i));
+    }
+    long fillMillis = (System.nanoTime() - fillStart) / 1_000_000;
+    long retained = usedHeapAfterGc() - baseline;
+
+    long gcCountBefore = gcCount();
+    long gcTimeBefore = gcTime();
+    List<Thread> readers = new ArrayList<>();
+    long[] reads = new long[Runtime.getRuntime().availableProcessors()];
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    for (int t = 0; t < reads.length; t++) {
+      int reader = t;
+      Thread thread = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long count = 0;
+        try {
+          while (System.nanoTime() < deadline) {
+            String value = cache.getEntry(key(random.nextInt(entries)));
+            // Short-lived request garbage, so young collections have to trace the cache too.
+            byte[] scratch = new byte[value.length()];
+            count += scratch.length > 0 ? 1 : 0;
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        reads[reader] = count;
+      });
+      readers.add(thread);
+      thread.start();
+    }
+    for (Thread thread : readers) {
+      thread.join();
+    }
+
+    long totalReads = 0;
+    for (long count : reads) {
+      totalReads += count;
+    }
+    System.out.println(String.format("%s: %d entries of %d bytes, fill %d ms", mode, entries, valueBytes, fillMillis));
+    System.out.println(String.format("  retained heap     %,d KB", retained / 1024));
+    if (cache instanceof OffHeapCache) {
+      System.out.println(String.format("  direct memory     %,d KB", ((OffHeapCache) cache).reservedBytes() / 1024));
+    }
+    System.out.println(String.format("  reads             %,d (%,d/s)", totalReads, totalReads / seconds));
+    System.out.println(String.format("  gc collections    %d", gcCount() - gcCountBefore));
+    System.out.println(String.format("  gc time           %d ms", gcTime() - gcTimeBefore));
+    System.out.println("  " + cache.stats());
+  }
+
+  /**
+   * Fills the store with 100 byte values until its slabs are taken, then writes rounds of values
+   * from 10 bytes to half a slab, each checked to be stored and read back.
+   */
+  private static void mixedSizes(long capacity) {
+    long[] evictions = new long[1];
+    OffHeapStore store = new OffHeapStore(capacity, () -> evictions[0]++);
+    String small = new String(new char[100]).replace('\0', 's');
+    for (int i = 0; i < capacity / 100; i++) {
+      store.put("small-" + i, small);
+    }
+    int sizes = 0;
+    long start = System.nanoTime();
+    for (int round = 0; round < 20; round++) {
+      for (int bytes = 10; bytes <= OffHeapStore.maximumRecordSize() / 2; bytes *= 2, sizes++) {
+        String key = "mixed-" + round + "-" + bytes;
+        String value = new String(new char[bytes]).replace('\0', (char) ('a' + round));
+        if (!store.put(key, value) || !value.equals(store.get(key))) {
+          throw new IllegalStateException("value of " + bytes + " bytes not stored in round " + round);
+        }
+      }
+    }
+    long micros = (System.nanoTime() - start) / 1000;
+    System.out.println(String.format("mixed: %d writes of 10 B to %d KB all stored, %d us each, %,d evictions",
+        sizes, OffHeapStore.maximumRecordSize() / 2048, micros / sizes, evictions[0]));
+  }
+
+  /** Loads 20 values of the given size into a 256MB budget and checks that all of them stay cached. */
+  private static void largeValues(int valueBytes) throws Exception {
+    String padding = new String(new char[valueBytes]).replace('\0', 'x');
+    Walmart cache = new Walmart(256L << 20, Weigher.heapBytes()) {
+      @Override
+      protected String load(String key) {
+        return padding;
+      }
+    };
+    for (int i = 0; i < 20; i++) {
+      cache.getEntry(key(i));
+    }
+    if (cache.size() != 20 || cache.stats().evictionCount() != 0) {
+      throw new IllegalStateException("values of " + valueBytes + " bytes not all cached: " + cache.size()
+          + " entries, " + cache.stats().evictionCount() + " evictions");
+    }
+    System.out.println(String.format("large: 20 values of %,d bytes cached with %d processors, %,d KB of 256 MB used",
+        valueBytes, Runtime.getRuntime().availableProcessors(), cache.weightedSize() / 1024));
+  }
+
+  private static DistributedCache newCache(String mode, int entries, int valueBytes) {
+    String padding = new String(new char[valueBytes]).replace('\0', 'x');
+    if (mode.equals("heap")) {
+      return new Walmart(entries) {
+        @Override
+        protected String load(String key) {
+          return padding + key;
+        }
+      };
+    }
+    long capacity = (long) entries * Integer.highestOneBit((valueBytes + 32) * 2) * 2;
+    return new OffHeapCache(capacity) {
+      @Override
+      protected String load(String key) {
+        return padding + key;
+      }
+    };
+  }
+
+  private static String key(int i) {
+    return "key-" + i;
+  }
+
+  private static long usedHeapAfterGc() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, bean.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long gcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0, bean.getCollectionTime());
+    }
+    return time;
+  }
+}
@@ -0,0 +1,394 @@
+package com.java.multithreading;
+
+import com.java.multithreading.cache.CacheProtocol;
+import com.java.multithreading.cache.CacheStats;
+import com.java.multithreading.cache.ConsistentHashRing;
+import com.java.multithreading.cache.LatencyHistogram;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of a partitioned cache. Keys are spread over {@link CacheNode}s with a
+ * {@link ConsistentHashRing}, so capacity and load throughput grow with the number of nodes and
+ * adding or removing a node only remaps about 1/N of the keys.
+ *
+ * Each node gets a small pool of connections. Requests are pipelined: callers write their frame
+ * and wait on a future, and one reader thread per connection completes futures by request id,
+ * so many lookups share a connection without waiting for each other.
+ */
+public class PartitionedCache implements DistributedCache, Closeable {
+  public static final int DEFAULT_VIRTUAL_NODES = 160;
+  public static final int DEFAULT_CONNECTIONS_PER_NODE = 2;
+  /** How long {@link #stats()} waits for each node to answer. */
+  public static final long STATS_TIMEOUT_MILLIS = 5_000;
+
+  private final ConsistentHashRing<InetSocketAddress> ring;
+  private final Map<InetSocketAddress, NodeClient> clients = new ConcurrentHashMap<>();
+  private final int connectionsPerNode;
+  private volatile boolean closed;
+
+  public PartitionedCache(List<InetSocketAddress> nodes) {
+    this(nodes, DEFAULT_VIRTUAL_NODES, DEFAULT_CONNECTIONS_PER_NODE);
+  }
+
+  public PartitionedCache(List<InetSocketAddress> nodes, int virtualNodes, int connectionsPerNode) {
+    this.ring = new ConsistentHashRing<>(virtualNodes);
+    this.connectionsPerNode = connectionsPerNode;
+    for (InetSocketAddress node : nodes) {
+      addNode(node);
+    }
+  }
+
+  public void addNode(InetSocketAddress node) {
+    clients.computeIfAbsent(node, address -> new NodeClient(address, connectionsPerNode));
+    ring.add(node);
+  }
+
+  public void removeNode(InetSocketAddress node) {
+    ring.remove(node);
+    NodeClient client = clients.remove(node);
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  public InetSocketAddress nodeFor(String key) {
+    return ring.nodeFor(key);
+  }
+
+  @Override
+  public String getEntry(String key) throws ExecutionException, InterruptedException {
+    return getEntryAsync(key).get();
+  }
+
+  @Override
+  public CompletableFuture<String> getEntryAsync(String key) {
+    NodeClient client;
+    try {
+      client = clientFor(key);
+    } catch (IllegalStateException e) {
+      CompletableFuture<String> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IOException(e.getMessage()));
+      return failed;
+    }
+    return client.send(CacheProtocol.GET, key).thenApply(PartitionedCache::decode);
+  }
+
+  /**
+   * The client of the key's owner. A node is taken off the ring before its client is dropped, so
+   * a node found without a client is being removed and a second look finds the new owner.
+   * Throws IllegalStateException once the cache is closed or if the owner has no client.
+   */
+  private NodeClient clientFor(String key) {
+    if (closed) {
+      throw new IllegalStateException("cache is closed");
+    }
+    NodeClient client = clients.get(ring.nodeFor(key));
+    if (client == null) {
+      InetSocketAddress node = ring.nodeFor(key);
+      client = clients.get(node);
+      if (client == null) {
+        throw new IllegalStateException(closed ? "cache is closed" : "no connection to " + node);
+      }
+    }
+    return client;
+  }
+
+  /** Pipelines one request per distinct key to its owner, then collects the replies. */
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) throws ExecutionException, InterruptedException {
+    Map<String, CompletableFuture<String>> replies = new LinkedHashMap<>();
+    for (String key : keys) {
+      if(!replies.containsKey(key)) {
+        replies.put(key, getEntryAsync(key));
+      }
+    }
+    Map<String, String> result = new LinkedHashMap<>();
+    for (Map.Entry<String, CompletableFuture<String>> reply : replies.entrySet()) {
+      result.put(reply.getKey(), reply.getValue().get());
+    }
+    return result;
+  }
+
+  private static String decode(Reply reply) {
+    switch (reply.status) {
+      case CacheProtocol.OK:
+        return new String(reply.payload, StandardCharsets.UTF_8);
+      case CacheProtocol.NULL:
+        return null;
+      default:
+        throw new CompletionException(new IOException("remote load failed: "
+            + new String(reply.payload, StandardCharsets.UTF_8)));
+    }
+  }
+
+  @Override
+  public float cacheHitRatio() {
+    return (float) stats().hitRate();
+  }
+
+  /**
+   * Sums the counters of every node; the latency histogram is not shipped over the wire. Throws
+   * IllegalStateException if a node fails to answer within {@link #STATS_TIMEOUT_MILLIS}, or
+   * once the cache is closed.
+   */
+  @Override
+  public CacheStats stats() {
+    if (closed) {
+      throw new IllegalStateException("cache is closed");
+    }
+    Map<InetSocketAddress, CompletableFuture<Reply>> replies = new LinkedHashMap<>();
+    for (InetSocketAddress node : ring.nodes()) {
+      NodeClient client = clients.get(node);
+      if (client != null) {
+        replies.put(node, client.send(CacheProtocol.STATS, ""));
+      }
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STATS_TIMEOUT_MILLIS);
+    long[] totals = new long[6];
+    for (Map.Entry<InetSocketAddress, CompletableFuture<Reply>> reply : replies.entrySet()) {
+      long[] counters;
+      try {
+        counters = CacheProtocol.decodeStats(
+            reply.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS).payload);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted waiting for stats", e);
+      } catch (ExecutionException | TimeoutException e) {
+        reply.getValue().cancel(false);
+        throw new IllegalStateException("no stats from " + reply.getKey(), e instanceof ExecutionException ? e.getCause() : e);
+      }
+      for (int i = 0; i < totals.length && i < counters.length; i++) {
+        totals[i] += counters[i];
+      }
+    }
+    return new CacheStats(totals[0], totals[1], totals[2], totals[3], totals[4], totals[5],
+        new LatencyHistogram().snapshot());
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    for (NodeClient client : clients.values()) {
+      client.close();
+    }
+    clients.clear();
+  }
+
+  private static final class Reply {
+    final byte status;
+    final byte[] payload;
+
+    Reply(byte status, byte[] payload) {
+      this.status = status;
+      this.payload = payload;
+    }
+  }
+
+  /** Round-robins over a fixed set of connections, reopening any that broke. */
+  private static final class NodeClient {
+    private final InetSocketAddress address;
+    private final Connection[] connections;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+
+    NodeClient(InetSocketAddress address, int size) {
+      this.address = address;
+      this.connections = new Connection[size];
+    }
+
+    CompletableFuture<Reply> send(byte op, String key) {
+      int slot = Math.floorMod(next.getAndIncrement(), connections.length);
+      Connection connection;
+      try {
+        connection = connection(slot);
+      } catch (IOException e) {
+        CompletableFuture<Reply> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+      return connection.send(op, key);
+    }
+
+    private Connection connection(int slot) throws IOException {
+      Connection connection = connections[slot];
+      if (connection != null && !connection.closed) {
+        return connection;
+      }
+      synchronized (connections) {
+        if (closed) {
+          throw new IOException("client for " + address + " is closed");
+        }
+        connection = connections[slot];
+        if (connection == null || connection.closed) {
+          connection = new Connection(address);
+          connections[slot] = connection;
+        }
+        return connection;
+      }
+    }
+
+    void close() {
+      synchronized (connections) {
+        closed = true;
+        for (Connection connection : connections) {
+          if (connection != null) {
+            connection.fail(new IOException("client closed"));
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Connection {
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Map<Integer, CompletableFuture<Reply>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private volatile boolean closed;
+
+    Connection(InetSocketAddress address) throws IOException {
+      socket = new Socket(address.getAddress(), address.getPort());
+      socket.setTcpNoDelay(true);
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      Thread reader = new Thread(this::readReplies, "cache-client-" + address.getPort());
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    CompletableFuture<Reply> send(byte op, String key) {
+      int id = ids.incrementAndGet();
+      CompletableFuture<Reply> reply = new CompletableFuture<>();
+      pending.put(id, reply);
+      try {
+        synchronized (out) {
+          CacheProtocol.writeRequest(out, id, op, key);
+          out.flush();
+        }
+      } catch (IllegalArgumentException e) {
+        // rejected before anything was written, so the connection is still usable
+        pending.remove(id);
+        reply.completeExceptionally(e);
+      } catch (IOException e) {
+        fail(e);
+      }
+      if (closed) {
+        pending.remove(id);
+        reply.completeExceptionally(new IOException("connection closed"));
+      }
+      return reply;
+    }
+
+    private void readReplies() {
+      try {
+        while (true) {
+          int id = in.readInt();
+          byte status = in.readByte();
+          byte[] payload = CacheProtocol.readBlock(in);
+          CompletableFuture<Reply> reply = pending.remove(id);
+          if (reply != null) {
+            reply.complete(new Reply(status, payload));
+          }
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    void fail(IOException cause) {
+      closed = true;
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+        // already broken
+      }
+      for (Integer id : pending.keySet()) {
+        CompletableFuture<Reply> reply = pending.remove(id);
+        if (reply != null) {
+          reply.completeExceptionally(cause);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int nodeCount = 3;
+    int keys = 100_000;
+    List<CacheNode> nodes = new ArrayList<>();
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (int i = 0; i <= nodeCount; i++) {
+      CacheNode node = new CacheNode(0, new Walmart(keys) {
+        @Override
+        protected String load(String key) {
+          return "value-of-" + key;
+        }
+      });
+      node.start();
+      nodes.add(node);
+      addresses.add(new InetSocketAddress("localhost", node.port()));
+    }
+
+    PartitionedCache cache = new PartitionedCache(addresses.subList(0, nodeCount));
+    Map<String, InetSocketAddress> owners = new ConcurrentHashMap<>();
+    long start = System.nanoTime();
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      int reader = t;
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = reader; i < keys; i += 8) {
+            String key = "key-" + i;
+            cache.getEntry(key);
+            owners.put(key, cache.nodeFor(key));
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      readers.add(thread);
+      thread.start();
+    }
+    for (Thread thread : readers) {
+      thread.join();
+    }
+    long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("%d nodes: %d lookups in %d ms (%d/s)", nodeCount, keys, millis, keys * 1000L / millis));
+
+    cache.addNode(addresses.get(nodeCount));
+    int moved = 0;
+    for (Map.Entry<String, InetSocketAddress> owner : owners.entrySet()) {
+      if (!cache.nodeFor(owner.getKey()).equals(owner.getValue())) {
+        moved++;
+      }
+    }
+    System.out.println(String.format("adding node %d moved %.1f%% of keys (ideal %.1f%%)",
+        nodeCount + 1, 100.0 * moved / keys, 100.0 / (nodeCount + 1)));
+    System.out.println(cache.stats());
+
+    cache.close();
+    for (CacheNode node : nodes) {
+      node.close();
+    }
+  }
+}
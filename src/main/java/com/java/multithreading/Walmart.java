@@ -1,39 +1,491 @@
 package com.java.multithreading;
 
+import com.java.multithreading.cache.BatchLoad;
+import com.java.multithreading.cache.CacheLoader;
+import com.java.multithreading.cache.CacheSnapshot;
+import com.java.multithreading.cache.CacheStats;
+import com.java.multithreading.cache.CacheWriter;
+import com.java.multithreading.cache.StatsCounter;
+import com.java.multithreading.cache.TimerWheel;
+import com.java.multithreading.cache.TinyLfuPolicy;
+import com.java.multithreading.cache.Weigher;
+import com.java.multithreading.cache.WriteBehindBuffer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Walmart implements DistributedCache {
+  public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+  private static final long TICK_MILLIS = 10;
+
+  ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<>();
+  private final TinyLfuPolicy policy;
+  private final StatsCounter statsCounter = new StatsCounter();
+  private final long expireAfterWriteNanos;
+  private final long refreshAfterWriteNanos;
+  private final TimerWheel<Entry> timerWheel;
+  private final ScheduledExecutorService ticker;
+  private final Executor executor;
+  private final Weigher weigher;
+  private final CacheLoader loader;
+  private ScheduledExecutorService snapshotter;
+  private volatile WriteBehindBuffer writeBehind;
+
+  public Walmart() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  public Walmart(long maximumSize) {
+    this(maximumSize, 0, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param expireAfterWrite  entries older than this are dropped and reloaded on the next read; 0 disables
+   * @param refreshAfterWrite entries older than this are reloaded in the background on the next read,
+   *                          while readers keep getting the current value; 0 disables
+   */
+  public Walmart(long maximumSize, long expireAfterWrite, long refreshAfterWrite, TimeUnit unit) {
+    this(maximumSize, expireAfterWrite, refreshAfterWrite, unit, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param executor runs {@link #getEntryAsync} loads and background refreshes
+   */
+  public Walmart(long maximumSize, long expireAfterWrite, long refreshAfterWrite, TimeUnit unit,
+      Executor executor) {
+    this(maximumSize, Weigher.singleton(), expireAfterWrite, refreshAfterWrite, unit, executor);
+  }
+
+  /**
+   * Bounds the cache by total weight instead of entry count, e.g. a byte budget with
+   * {@link Weigher#heapBytes()}. An entry weighs nothing until its value is loaded.
+   */
+  public Walmart(long maximumWeight, Weigher weigher) {
+    this(maximumWeight, weigher, 0, 0, TimeUnit.NANOSECONDS, ForkJoinPool.commonPool());
+  }
+
+  public Walmart(long maximumWeight, Weigher weigher, long expireAfterWrite, long refreshAfterWrite,
+      TimeUnit unit, Executor executor) {
+    this(null, maximumWeight, weigher, expireAfterWrite, refreshAfterWrite, unit, executor);
+  }
+
+  /** Reads misses through the loader instead of {@link #load}. */
+  public Walmart(CacheLoader loader, long maximumSize) {
+    this(loader, maximumSize, Weigher.singleton(), 0, 0, TimeUnit.NANOSECONDS, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param loader backend read on a miss; null leaves loading to {@link #load} and {@link #loadAll}
+   */
+  public Walmart(CacheLoader loader, long maximumWeight, Weigher weigher, long expireAfterWrite,
+      long refreshAfterWrite, TimeUnit unit, Executor executor) {
+    this.loader = loader;
+    this.weigher = weigher;
+    this.executor = executor;
+    this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+    this.policy = new TinyLfuPolicy(maximumWeight, key -> {
+      Entry evicted = map.remove(key);
+      if (evicted != null) {
+        deschedule(evicted);
+      }
+      statsCounter.recordEviction();
+    });
+
+    if (expireAfterWriteNanos > 0) {
+      timerWheel = new TimerWheel<>(System.nanoTime());
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "walmart-cache-expiry");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.setRemoveOnCancelPolicy(true);
+      scheduler.scheduleWithFixedDelay(this::expireEntries, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+      ticker = scheduler;
+    } else {
+      timerWheel = null;
+      ticker = null;
+    }
+  }
 
-  ConcurrentHashMap<String, Future<String>> map = new ConcurrentHashMap<>();
-  Integer requestOutOfCache = 0;
-  Integer totalRequest = 0;
   @Override
   public String getEntry(String key) throws ExecutionException, InterruptedException {
-    Future<String> value = map.get(key);
+    return entryFor(key, Runnable::run).get();
+  }
+
+  /**
+   * Non-blocking lookup: a miss starts the load on the cache's executor and the returned future
+   * completes when it finishes. Readers of a key that is already loading share that load.
+   */
+  @Override
+  public CompletableFuture<String> getEntryAsync(String key) {
+    return entryFor(key, executor).copy();
+  }
+
+  private Entry entryFor(String key, Executor loadExecutor) {
+    Entry value = present(key, clock());
+    if(value == null) {
+      Entry task = new Entry(key);
+      value = install(task);
+      if(value == null) {
+        value = task;
+        try {
+          loadExecutor.execute(() -> task.settle(() -> loadAndRecord(key)));
+        } catch (RejectedExecutionException e) {
+          // Fails this lookup and unmaps the task, so the key is not left waiting for a load that never runs.
+          task.settle(() -> {
+            throw e;
+          });
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Looks up all keys, loading every missing one through a single {@link #loadAll} call. Keys
+   * that another reader is already loading are not requested again; their loads are awaited.
+   */
+  @Override
+  public Map<String, String> getAll(Collection<String> keys) throws ExecutionException, InterruptedException {
+    long now = clock();
+    Map<String, Entry> entries = new LinkedHashMap<>();
+    Map<String, Entry> created = new LinkedHashMap<>();
+    for (String key : keys) {
+      if(entries.containsKey(key)) {
+        continue;
+      }
+      Entry value = present(key, now);
+      if(value == null) {
+        Entry task = new Entry(key);
+        value = install(task);
+        if(value == null) {
+          value = task;
+          created.put(key, task);
+        }
+      }
+      entries.put(key, value);
+    }
+
+    if(!created.isEmpty()) {
+      BatchLoad batch = new BatchLoad();
+      long start = System.nanoTime();
+      try {
+        batch.complete(loadAll(Collections.unmodifiableSet(created.keySet())));
+        statsCounter.recordLoadSuccess(System.nanoTime() - start);
+      } catch (Exception | Error e) {
+        statsCounter.recordLoadFailure(System.nanoTime() - start);
+        batch.fail(e);
+      }
+      for (Entry task : created.values()) {
+        task.settle(() -> batch.valueOf(task.key));
+      }
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().get());
+    }
+    return result;
+  }
+
+  private long clock() {
+    return expireAfterWriteNanos > 0 || refreshAfterWriteNanos > 0 ? System.nanoTime() : 0;
+  }
+
+  /** Returns the live entry for the key, dropping it first if it has expired. */
+  private Entry present(String key, long now) {
+    Entry value = map.get(key);
+    if(value == null) {
+      return null;
+    }
+    if(hasExpired(value, now)) {
+      expire(value);
+      return null;
+    }
+    statsCounter.recordHit();
+    policy.recordAccess(key);
+    if(needsRefresh(value, now)) {
+      refresh(value);
+    }
+    return value;
+  }
+
+  /** Maps the task unless another reader got there first; returns that reader's entry if so. */
+  private Entry install(Entry task) {
+    Entry value = map.putIfAbsent(task.key, task);
     if(value == null) {
-      FutureTask task = null;
-      synchronized(map) {
-        requestOutOfCache++;
-        task= new FutureTask(new Callable() {
-        @Override
-        public Object call() throws Exception {
-          return null;
+      statsCounter.recordMiss();
+      policy.recordWrite(task.key, 0);
+    } else {
+      statsCounter.recordHit();
+      policy.recordAccess(task.key);
+    }
+    return value;
+  }
+
+  /**
+   * Loads the entry from the backend; runs once per missing key, on the first reader's thread
+   * for {@link #getEntry} and on the cache's executor for {@link #getEntryAsync}. The default
+   * asks the {@link CacheLoader}, or caches null if there is none.
+   */
+  protected String load(String key) throws Exception {
+    return loader == null ? null : loader.load(key);
+  }
+
+  /**
+   * Loads several entries in one backend call. Keys missing from the result are cached as null.
+   * The default asks the {@link CacheLoader}, or falls back to one {@link #load} per key.
+   */
+  protected Map<String, String> loadAll(Set<String> keys) throws Exception {
+    if (loader != null) {
+      return loader.loadAll(keys);
+    }
+    Map<String, String> values = new HashMap<>();
+    for (String key : keys) {
+      values.put(key, load(key));
+    }
+    return values;
+  }
+
+  private String loadAndRecord(String key) throws Exception {
+    long start = System.nanoTime();
+    try {
+      String value = load(key);
+      statsCounter.recordLoadSuccess(System.nanoTime() - start);
+      return value;
+    } catch (Exception | Error e) {
+      statsCounter.recordLoadFailure(System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  private boolean hasExpired(Entry entry, long now) {
+    return expireAfterWriteNanos > 0 && entry.isDone() && now - entry.writeTime >= expireAfterWriteNanos;
+  }
+
+  private boolean needsRefresh(Entry entry, long now) {
+    return refreshAfterWriteNanos > 0 && entry.isDone() && now - entry.writeTime >= refreshAfterWriteNanos
+        && entry.refreshing.compareAndSet(false, true);
+  }
+
+  /** Reloads off the caller's thread and swaps the new value in only if the old entry is still mapped. */
+  private void refresh(Entry current) {
+    Entry fresh = new Entry(current.key);
+    try {
+      executor.execute(() -> {
+        fresh.settle(() -> loadAndRecord(current.key));
+        if (fresh.loadedNormally() && map.replace(current.key, current, fresh)) {
+          deschedule(current);
+        } else {
+          deschedule(fresh);
+          current.refreshing.set(false);
         }
       });
-        totalRequest++;
-        map.put(key, task);
+    } catch (RejectedExecutionException e) {
+      // The current value keeps being served and a later read tries the refresh again.
+      fresh.completeExceptionally(e);
+      current.refreshing.set(false);
+    }
+  }
+
+  private void expire(Entry entry) {
+    if (policy.remove(entry.key, () -> map.remove(entry.key, entry))) {
+      deschedule(entry);
+      statsCounter.recordEviction();
+    }
+  }
+
+  private void expireEntries() {
+    for (Entry entry : timerWheel.advance(System.nanoTime())) {
+      expire(entry);
+    }
+  }
+
+  private void deschedule(Entry entry) {
+    if (timerWheel != null) {
+      timerWheel.deschedule(entry.timer);
+    }
+  }
+
+  public long size() {
+    return policy.size();
+  }
+
+  /** Total weight of the cached entries, as computed by the weigher; approximate under concurrent writes. */
+  public long weightedSize() {
+    return policy.weightedSize();
+  }
+
+  /**
+   * Writes up to {@code limit} of the hottest loaded entries to {@code file}. Readers are not
+   * stopped: keys are copied from the policy one segment at a time, entries still loading are
+   * skipped, and the file is written from that copy.
+   */
+  public int snapshot(Path file, int limit) throws IOException {
+    List<Map.Entry<String, String>> entries = new ArrayList<>();
+    for (String key : policy.hottest(limit)) {
+      Entry entry = map.get(key);
+      if (entry != null && entry.loadedNormally()) {
+        entries.add(new AbstractMap.SimpleImmutableEntry<>(key, entry.getNow(null)));
+      }
+    }
+    return CacheSnapshot.write(file, entries);
+  }
+
+  /** Takes a {@link #snapshot} every {@code period} on a daemon thread until {@link #shutdown}. */
+  public synchronized void scheduleSnapshots(Path file, int limit, long period, TimeUnit unit) {
+    if (snapshotter == null) {
+      snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "walmart-cache-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    snapshotter.scheduleWithFixedDelay(() -> {
+      try {
+        snapshot(file, limit);
+      } catch (IOException e) {
+        System.err.println("cache snapshot to " + file + " failed: " + e);
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * Fills the cache from a {@link #snapshot} file, hottest entries first, without replacing
+   * anything already cached. Returns the number of entries added.
+   */
+  public int warmStart(Path file) throws IOException {
+    int[] added = {0};
+    CacheSnapshot.read(file, (key, value) -> {
+      Entry entry = new Entry(key);
+      if (map.putIfAbsent(key, entry) == null) {
+        policy.recordWrite(key, 0);
+        entry.settle(() -> value);
+        added[0]++;
       }
+    });
+    return added[0];
+  }
+
+  /**
+   * Caches the value, replacing whatever is cached or loading for the key, and queues it for the
+   * {@link #writeBehind} writer if there is one. The backend sees the write with a later batch.
+   * Throws IllegalStateException after {@link #shutdown()} if write-behind is enabled.
+   */
+  public void put(String key, String value) {
+    Objects.requireNonNull(value);
+    WriteBehindBuffer buffer = writeBehind;
+    if (buffer != null && buffer.isClosed()) {
+      throw new IllegalStateException("cache is shut down; the write would never reach the writer");
+    }
+    Entry entry = new Entry(key);
+    Entry previous = map.put(key, entry);
+    if (previous != null) {
+      deschedule(previous);
+    }
+    policy.recordWrite(key, 0);
+    entry.settle(() -> value);
+    if (buffer != null) {
+      buffer.write(key, value);
+    }
+  }
+
+  /**
+   * Sends {@link #put} values to the writer in coalesced batches: once {@code batchSize} keys are
+   * pending, and otherwise at most {@code maxDelay} after a write. Can only be enabled once.
+   */
+  public synchronized WriteBehindBuffer writeBehind(CacheWriter writer, int batchSize, long maxDelay, TimeUnit unit) {
+    if (writeBehind != null) {
+      throw new IllegalStateException("write-behind is already enabled");
+    }
+    writeBehind = new WriteBehindBuffer(writer, batchSize, maxDelay, unit);
+    return writeBehind;
+  }
+
+  /** Stops the expiry ticker and scheduled snapshots and flushes pending writes; entries can still be read. */
+  public synchronized void shutdown() {
+    if (writeBehind != null) {
+      writeBehind.close();
+    }
+    if (ticker != null) {
+      ticker.shutdownNow();
+    }
+    if (snapshotter != null) {
+      snapshotter.shutdownNow();
     }
-    return map.get(key).get();
   }
 
   @Override
   public float cacheHitRatio() {
-    return totalRequest - requestOutOfCache;
+    return (float) stats().hitRate();
+  }
+
+  @Override
+  public CacheStats stats() {
+    return statsCounter.snapshot();
+  }
+
+  /** A single-flight load whose completion time drives expiry and refresh. */
+  final class Entry extends CompletableFuture<String> {
+    final String key;
+    final TimerWheel.Timer<Entry> timer = new TimerWheel.Timer<>(this);
+    final AtomicBoolean refreshing = new AtomicBoolean();
+    volatile long writeTime;
+
+    Entry(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Runs the loader and completes this entry with its outcome. A failed load is unmapped
+     * before readers are woken, so the next read retries instead of seeing the failure again.
+     */
+    void settle(Callable<String> loader) {
+      String value;
+      try {
+        value = loader.call();
+      } catch (Throwable e) {
+        writeTime = System.nanoTime();
+        policy.remove(key, () -> map.remove(key, this));
+        completeExceptionally(e);
+        return;
+      }
+      writeTime = System.nanoTime();
+      if (timerWheel != null) {
+        timerWheel.schedule(timer, writeTime + expireAfterWriteNanos);
+      }
+      complete(value);
+      // A put may have replaced this entry while it loaded; its weight is the one that counts.
+      if (map.get(key) == this) {
+        policy.recordUpdate(key, weigher.weigh(key, value));
+      }
+    }
+
+    boolean loadedNormally() {
+      return isDone() && !isCompletedExceptionally();
+    }
   }
 
 }
@@ -42,4 +494,4 @@ public class Walmart implements DistributedCache {
 //
 //  Design a distributed cache that keeps upto N cache entries for a backend data system.
 //  Multiple readers can call getEntry() to retrieve entries from the cache.
-//  If the cache does not have the entry for the specified key, the reader shall wait until the entry becomes available.
\ No newline at end of file
+//  If the cache does not have the entry for the specified key, the reader shall wait until the entry becomes available.
@@ -0,0 +1,30 @@
+package com.java.multithreading.cache;
+
+import java.util.Map;
+
+/**
+ * Outcome of one bulk load shared by the per-key tasks created for it. The tasks only read it
+ * after the loading thread has completed or failed it, on that same thread.
+ */
+public final class BatchLoad {
+  private Map<String, String> values;
+  private Throwable failure;
+
+  public void complete(Map<String, String> values) {
+    this.values = values;
+  }
+
+  public void fail(Throwable failure) {
+    this.failure = failure;
+  }
+
+  public String valueOf(String key) throws Exception {
+    if (failure instanceof Exception) {
+      throw (Exception) failure;
+    }
+    if (failure != null) {
+      throw (Error) failure;
+    }
+    return values.get(key);
+  }
+}
@@ -0,0 +1,24 @@
+package com.java.multithreading.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Backend a cache reads through on a miss. */
+@FunctionalInterface
+public interface CacheLoader {
+  /** Returns the value for the key, or null if the backend has none; null is cached like any value. */
+  String load(String key) throws Exception;
+
+  /**
+   * Loads several keys in one backend call. Keys missing from the result are cached as null.
+   * The default falls back to one {@link #load} per key.
+   */
+  default Map<String, String> loadAll(Set<String> keys) throws Exception {
+    Map<String, String> values = new HashMap<>();
+    for (String key : keys) {
+      values.put(key, load(key));
+    }
+    return values;
+  }
+}
@@ -0,0 +1,89 @@
+package com.java.multithreading.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary frames spoken between {@code PartitionedCache} clients and {@code CacheNode} servers.
+ *
+ *   request:  int id | byte op | int length | key (UTF-8)
+ *   response: int id | byte status | int length | payload
+ *
+ * Every request carries an id that the node echoes back, so a client can pipeline many
+ * requests on one connection and the node can answer them in whatever order loads finish.
+ * Keys and payloads are limited to {@link #MAX_BLOCK} bytes, so a corrupt or hostile length
+ * cannot make the reader allocate up to 2GB.
+ */
+public final class CacheProtocol {
+  public static final byte GET = 1;
+  public static final byte STATS = 2;
+
+  public static final byte OK = 0;
+  public static final byte NULL = 1;
+  public static final byte ERROR = 2;
+
+  public static final int MAX_BLOCK = 16 << 20;
+
+  private CacheProtocol() {
+  }
+
+  public static void writeRequest(DataOutputStream out, int id, byte op, String key) throws IOException {
+    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > MAX_BLOCK) {
+      throw new IllegalArgumentException("key of " + bytes.length + " bytes is over " + MAX_BLOCK);
+    }
+    out.writeInt(id);
+    out.writeByte(op);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Throws IllegalArgumentException, before writing anything, if the payload is over {@link #MAX_BLOCK}. */
+  public static void writeResponse(DataOutputStream out, int id, byte status, byte[] payload) throws IOException {
+    if (payload.length > MAX_BLOCK) {
+      throw new IllegalArgumentException("payload of " + payload.length + " bytes is over " + MAX_BLOCK);
+    }
+    out.writeInt(id);
+    out.writeByte(status);
+    out.writeInt(payload.length);
+    out.write(payload);
+  }
+
+  /** Reads a length-prefixed byte block as sent by {@link #writeRequest} and {@link #writeResponse}. */
+  public static byte[] readBlock(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_BLOCK) {
+      throw new IOException("frame length " + length + " is outside 0.." + MAX_BLOCK);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  public static byte[] encodeStats(CacheStats stats) {
+    long[] counters = {stats.hitCount(), stats.missCount(), stats.loadSuccessCount(),
+        stats.loadFailureCount(), stats.totalLoadTime(), stats.evictionCount()};
+    byte[] bytes = new byte[counters.length * 8];
+    for (int i = 0; i < counters.length; i++) {
+      for (int b = 0; b < 8; b++) {
+        bytes[i * 8 + b] = (byte) (counters[i] >>> (56 - b * 8));
+      }
+    }
+    return bytes;
+  }
+
+  /** Counters only: latency histograms stay on the node that recorded them. */
+  public static long[] decodeStats(byte[] bytes) {
+    long[] counters = new long[bytes.length / 8];
+    for (int i = 0; i < counters.length; i++) {
+      long value = 0;
+      for (int b = 0; b < 8; b++) {
+        value = (value << 8) | (bytes[i * 8 + b] & 0xffL);
+      }
+      counters[i] = value;
+    }
+    return counters;
+  }
+}
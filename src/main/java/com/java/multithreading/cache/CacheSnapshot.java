@@ -0,0 +1,113 @@
+package com.java.multithreading.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact on-disk copy of cache entries used to warm a cache after a restart.
+ *
+ *   int magic | int version | int count | count x (int keyLength | key | int valueLength | value)
+ *
+ * Strings are UTF-8 and a value length of -1 stands for a cached null. Snapshots are written to
+ * a temporary sibling and atomically renamed, so a reader never sees a half-written file, and
+ * read back through a memory mapping instead of stream copies.
+ */
+public final class CacheSnapshot {
+  private static final int MAGIC = 0x574d5254;
+  private static final int VERSION = 1;
+
+  private CacheSnapshot() {
+  }
+
+  /** Writes the entries in iteration order and returns how many were written. */
+  public static int write(Path file, Iterable<Map.Entry<String, String>> entries) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    int count = 0;
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+           DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(0);
+        for (Map.Entry<String, String> entry : entries) {
+          byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+          out.writeInt(key.length);
+          out.write(key);
+          if (entry.getValue() == null) {
+            out.writeInt(-1);
+          } else {
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(value.length);
+            out.write(value);
+          }
+          count++;
+        }
+        out.flush();
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(0, count);
+        channel.write(header, 8);
+        channel.force(false);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return count;
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /** Hands every entry of the snapshot to {@code sink}, hottest first; returns how many were read. */
+  public static int read(Path file, BiConsumer<String, String> sink) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("snapshot larger than 2GB: " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      try {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+          throw new IOException("not a cache snapshot: " + file);
+        }
+        int count = buffer.getInt();
+        if (count < 0) {
+          throw new IOException("corrupt cache snapshot, entry count " + count + ": " + file);
+        }
+        for (int i = 0; i < count; i++) {
+          String key = readString(buffer, buffer.getInt(), false, file);
+          sink.accept(key, readString(buffer, buffer.getInt(), true, file));
+        }
+        return count;
+      } catch (BufferUnderflowException e) {
+        throw new IOException("truncated cache snapshot: " + file, e);
+      }
+    }
+  }
+
+  /** Reads a string of {@code length} bytes; -1 reads as null where {@code nullable}. */
+  private static String readString(ByteBuffer buffer, int length, boolean nullable, Path file) throws IOException {
+    if (length == -1 && nullable) {
+      return null;
+    }
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("corrupt cache snapshot, string length " + length + " at offset "
+          + (buffer.position() - 4) + ": " + file);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
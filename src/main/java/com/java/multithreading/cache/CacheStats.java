@@ -0,0 +1,96 @@
+package com.java.multithreading.cache;
+
+/**
+ * Immutable snapshot of a cache's counters. Each counter is read exactly once, so all the
+ * derived values (ratios, averages, percentiles) are computed from the same set of numbers.
+ * Counters only grow, so {@link #minus} of an older snapshot gives the rates for an interval.
+ */
+public final class CacheStats {
+  private final long hitCount;
+  private final long missCount;
+  private final long loadSuccessCount;
+  private final long loadFailureCount;
+  private final long totalLoadTime;
+  private final long evictionCount;
+  private final LatencyHistogram.Snapshot loadLatency;
+
+  public CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+      long totalLoadTime, long evictionCount, LatencyHistogram.Snapshot loadLatency) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.loadSuccessCount = loadSuccessCount;
+    this.loadFailureCount = loadFailureCount;
+    this.totalLoadTime = totalLoadTime;
+    this.evictionCount = evictionCount;
+    this.loadLatency = loadLatency;
+  }
+
+  public long requestCount() {
+    return hitCount + missCount;
+  }
+
+  public long hitCount() {
+    return hitCount;
+  }
+
+  public long missCount() {
+    return missCount;
+  }
+
+  public double hitRate() {
+    long requestCount = requestCount();
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  public double missRate() {
+    long requestCount = requestCount();
+    return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+  }
+
+  public long loadSuccessCount() {
+    return loadSuccessCount;
+  }
+
+  public long loadFailureCount() {
+    return loadFailureCount;
+  }
+
+  public long totalLoadTime() {
+    return totalLoadTime;
+  }
+
+  /** Average nanoseconds spent per load, successful or not. */
+  public double averageLoadPenalty() {
+    long loadCount = loadSuccessCount + loadFailureCount;
+    return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+  }
+
+  public long evictionCount() {
+    return evictionCount;
+  }
+
+  /** Load latency distribution in nanoseconds, since the cache was created. */
+  public LatencyHistogram.Snapshot loadLatency() {
+    return loadLatency;
+  }
+
+  /** Counter deltas between this snapshot and an older one; latency stays cumulative. */
+  public CacheStats minus(CacheStats other) {
+    return new CacheStats(
+        Math.max(0, hitCount - other.hitCount),
+        Math.max(0, missCount - other.missCount),
+        Math.max(0, loadSuccessCount - other.loadSuccessCount),
+        Math.max(0, loadFailureCount - other.loadFailureCount),
+        Math.max(0, totalLoadTime - other.totalLoadTime),
+        Math.max(0, evictionCount - other.evictionCount),
+        loadLatency);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CacheStats{hitCount=%d, missCount=%d, hitRate=%.4f, loadSuccessCount=%d, "
+            + "loadFailureCount=%d, averageLoadPenalty=%.0fns, loadP50=%dns, loadP99=%dns, evictionCount=%d}",
+        hitCount, missCount, hitRate(), loadSuccessCount, loadFailureCount, averageLoadPenalty(),
+        loadLatency.percentile(50), loadLatency.percentile(99), evictionCount);
+  }
+}
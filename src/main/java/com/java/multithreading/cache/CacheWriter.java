@@ -0,0 +1,9 @@
+package com.java.multithreading.cache;
+
+import java.util.Map;
+
+/** Backend a cache writes to; batches come from {@link WriteBehindBuffer} with one value per key. */
+@FunctionalInterface
+public interface CacheWriter {
+  void writeAll(Map<String, String> entries) throws Exception;
+}
@@ -0,0 +1,74 @@
+package com.java.multithreading.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring with virtual nodes. Each node owns {@code virtualNodes} points on a
+ * 64-bit ring and a key belongs to the first point clockwise from its hash, so adding or
+ * removing one of N nodes only moves about 1/N of the keys.
+ *
+ * Lookups read an immutable snapshot and never lock; membership changes copy the ring.
+ */
+public final class ConsistentHashRing<T> {
+  private final int virtualNodes;
+  private volatile TreeMap<Long, T> ring = new TreeMap<>();
+
+  public ConsistentHashRing(int virtualNodes) {
+    if (virtualNodes <= 0) {
+      throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  public synchronized void add(T node) {
+    TreeMap<Long, T> copy = new TreeMap<>(ring);
+    for (int i = 0; i < virtualNodes; i++) {
+      copy.put(hash(node + "#" + i), node);
+    }
+    ring = copy;
+  }
+
+  public synchronized void remove(T node) {
+    TreeMap<Long, T> copy = new TreeMap<>(ring);
+    copy.values().removeIf(node::equals);
+    ring = copy;
+  }
+
+  public T nodeFor(String key) {
+    TreeMap<Long, T> snapshot = ring;
+    if (snapshot.isEmpty()) {
+      throw new IllegalStateException("no nodes on the ring");
+    }
+    Map.Entry<Long, T> entry = snapshot.ceilingEntry(hash(key));
+    return entry != null ? entry.getValue() : snapshot.firstEntry().getValue();
+  }
+
+  public List<T> nodes() {
+    List<T> nodes = new ArrayList<>();
+    for (T node : ring.values()) {
+      if (!nodes.contains(node)) {
+        nodes.add(node);
+      }
+    }
+    return Collections.unmodifiableList(nodes);
+  }
+
+  /** FNV-1a over the chars followed by the murmur3 finalizer, so similar names spread out. */
+  static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
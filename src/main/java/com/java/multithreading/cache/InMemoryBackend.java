@@ -0,0 +1,77 @@
+package com.java.multithreading.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Map-backed stand-in for a remote store. Every call blocks the caller for a fixed round trip
+ * plus a cost per key, so batching and coalescing show up in benchmarks the way they would
+ * against a real database.
+ */
+public final class InMemoryBackend implements CacheLoader, CacheWriter {
+  private final ConcurrentHashMap<String, String> data = new ConcurrentHashMap<>();
+  private final long callLatencyNanos;
+  private final long keyLatencyNanos;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder keys = new LongAdder();
+
+  public InMemoryBackend(long callLatency, long keyLatency, TimeUnit unit) {
+    this.callLatencyNanos = unit.toNanos(callLatency);
+    this.keyLatencyNanos = unit.toNanos(keyLatency);
+  }
+
+  @Override
+  public String load(String key) {
+    roundTrip(1);
+    return data.get(key);
+  }
+
+  @Override
+  public Map<String, String> loadAll(Set<String> keys) {
+    roundTrip(keys.size());
+    Map<String, String> values = new HashMap<>();
+    for (String key : keys) {
+      values.put(key, data.get(key));
+    }
+    return values;
+  }
+
+  @Override
+  public void writeAll(Map<String, String> entries) {
+    roundTrip(entries.size());
+    data.putAll(entries);
+  }
+
+  /** Reads the stored value directly, without latency or counting. */
+  public String peek(String key) {
+    return data.get(key);
+  }
+
+  /** Stores a value directly, without latency or counting. */
+  public void seed(String key, String value) {
+    data.put(key, value);
+  }
+
+  public long calls() {
+    return calls.sum();
+  }
+
+  /** Keys read or written across all calls. */
+  public long keys() {
+    return keys.sum();
+  }
+
+  private void roundTrip(int keyCount) {
+    calls.increment();
+    keys.add(keyCount);
+    long deadline = System.nanoTime() + callLatencyNanos + keyLatencyNanos * keyCount;
+    for (long remaining; (remaining = deadline - System.nanoTime()) > 0; ) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+}
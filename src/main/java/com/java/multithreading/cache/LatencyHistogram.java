@@ -0,0 +1,151 @@
+package com.java.multithreading.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HDR-style log-linear histogram: every power of two range is split into 16 linear buckets,
+ * so any recorded value is reported within ~6% while the whole long range fits in 960 slots.
+ * Recording is a single atomic increment and never allocates.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+  private static final int LENGTH = (64 - SUB_BUCKET_BITS + 1) * HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(indexOf(value));
+    sum.add(value);
+    if (value > max.get()) {
+      max.accumulate(value);
+    }
+  }
+
+  public Snapshot snapshot() {
+    long[] copy = new long[LENGTH];
+    long count = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      copy[i] = counts.get(i);
+      count += copy[i];
+    }
+    return new Snapshot(copy, count, sum.sum(), max.get());
+  }
+
+  /**
+   * The largest value not above the given one that ends a bucket, so that
+   * {@link Snapshot#countAtOrBelow} is exact at it; bounds chosen this way never split a bucket.
+   */
+  public static long bucketEdgeAtOrBelow(long value) {
+    int index = indexOf(value);
+    return index == 0 || highestValueAt(index) == value ? value : highestValueAt(index - 1);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return exponent * HALF_COUNT + (int) (value >>> exponent);
+  }
+
+  static long lowestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int exponent = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+    return (long) (index - exponent * HALF_COUNT) << exponent;
+  }
+
+  static long highestValueAt(int index) {
+    return index + 1 < LENGTH ? lowestValueAt(index + 1) - 1 : Long.MAX_VALUE;
+  }
+
+  /** Point-in-time copy of the buckets; counts recorded after it was taken are not included. */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public long sum() {
+      return sum;
+    }
+
+    public long max() {
+      return max;
+    }
+
+    public double mean() {
+      return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /** Upper bound of the bucket holding the given percentile (0-100), capped at the max seen. */
+    public long percentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highestValueAt(i), max);
+        }
+      }
+      return max;
+    }
+
+    /**
+     * Values recorded at or below the bound, counting a bucket only if it lies wholly below it,
+     * so the result may be short by part of one bucket (~6% of the bound) unless the bound is a
+     * {@link LatencyHistogram#bucketEdgeAtOrBelow bucket edge}.
+     */
+    public long countAtOrBelow(long bound) {
+      long seen = 0;
+      for (int i = 0; i < counts.length && highestValueAt(i) <= bound; i++) {
+        seen += counts[i];
+      }
+      return seen;
+    }
+
+    /** Bucket upper bounds paired with cumulative counts, for exporters that need the raw shape. */
+    public long[][] cumulativeBuckets() {
+      int used = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] != 0) {
+          used++;
+        }
+      }
+      long[][] buckets = new long[used][];
+      long cumulative = 0;
+      int next = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] != 0) {
+          cumulative += counts[i];
+          buckets[next++] = new long[] {highestValueAt(i), cumulative};
+        }
+      }
+      return buckets;
+    }
+  }
+}
@@ -0,0 +1,399 @@
+package com.java.multithreading.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * String-to-string store that keeps keys, values and its hash index in direct memory, so the
+ * collector only ever sees a few buffers per segment no matter how many entries are stored.
+ *
+ * Records live in 1MB slabs of direct {@link ByteBuffer}, memcached style: each slab is cut into
+ * chunks of one power-of-two size class and free chunks are chained through their own first
+ * bytes. The index is an open-addressing table in another direct buffer holding 16 byte slots
+ * of (hash, state, record address). When a size class runs out of slabs a CLOCK hand sweeps
+ * the index for an unreferenced record of that class and reuses its chunk. A class that has no
+ * record to evict takes a slab over from another class instead: an empty one if there is one,
+ * otherwise the least recently used, whose records are evicted. Without that, the first classes
+ * to claim the slabs would keep them and every other record size would never be stored.
+ *
+ * Keys are striped over segments with their own lock, index and slab budget.
+ */
+public final class OffHeapStore {
+  static final int SLAB_SIZE = 1 << 20;
+  private static final int MIN_CHUNK_SHIFT = 6;
+  private static final int CLASS_COUNT = 20 - MIN_CHUNK_SHIFT + 1;
+  private static final int HEADER_SIZE = 8;
+
+  private static final int SLOT_SIZE = 16;
+  private static final int EMPTY = 0;
+  private static final int FULL = 1;
+  private static final int DELETED = 2;
+  private static final int REFERENCED = 0x100;
+  private static final int STATE_MASK = 0xff;
+  private static final int INITIAL_SLOTS = 1024;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+  private final Runnable evictionListener;
+
+  /**
+   * @param capacityBytes     total direct memory for records; the index is allocated on top of it
+   * @param evictionListener  run once for every record dropped to make room
+   */
+  public OffHeapStore(long capacityBytes, Runnable evictionListener) {
+    long slabs = Math.max(1, capacityBytes / SLAB_SIZE);
+    int count = 1;
+    while (count < 16 && slabs / (count << 1) >= 4) {
+      count <<= 1;
+    }
+    this.segments = new Segment[count];
+    this.segmentMask = count - 1;
+    this.evictionListener = evictionListener;
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment((int) Math.max(1, slabs / count + (i < slabs % count ? 1 : 0)));
+    }
+  }
+
+  /** Largest key + value size in UTF-8 bytes that can be stored. */
+  public static int maximumRecordSize() {
+    return SLAB_SIZE - HEADER_SIZE;
+  }
+
+  public String get(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    segment.lock.lock();
+    try {
+      return segment.get(hash, keyBytes);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /** Stores the value, replacing any previous one; returns false if it does not fit in a slab. */
+  public boolean put(String key, String value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    if (HEADER_SIZE + keyBytes.length + valueBytes.length > SLAB_SIZE) {
+      return false;
+    }
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    segment.lock.lock();
+    try {
+      return segment.put(hash, keyBytes, valueBytes);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  public boolean remove(String key) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(keyBytes);
+    Segment segment = segmentFor(hash);
+    segment.lock.lock();
+    try {
+      int slot = segment.find(hash, keyBytes);
+      if (slot < 0) {
+        return false;
+      }
+      segment.delete(slot);
+      return true;
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /** Direct memory reserved by slabs and index tables. */
+  public long reservedBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += (long) segment.slabs.size() * SLAB_SIZE + segment.index.capacity();
+    }
+    return bytes;
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[(hash >>> 24) & segmentMask];
+  }
+
+  private static int hash(byte[] bytes) {
+    int hash = Arrays.hashCode(bytes);
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+
+  private static int sizeClass(int recordSize) {
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(recordSize, 1 << MIN_CHUNK_SHIFT) - 1);
+    return shift - MIN_CHUNK_SHIFT;
+  }
+
+  private static long address(int slab, int offset) {
+    return ((long) slab << 32) | offset;
+  }
+
+  private final class Segment {
+    final ReentrantLock lock = new ReentrantLock();
+    final List<ByteBuffer> slabs = new ArrayList<>();
+    final int maximumSlabs;
+    final long[] freeChunks = new long[CLASS_COUNT];
+    // Per slab: its size class, the records in it, and when one of them was last read or written.
+    final int[] slabClass;
+    final int[] slabRecords;
+    final long[] slabUsed;
+    long tick;
+    ByteBuffer index;
+    int slotMask;
+    int size;
+    int deleted;
+    int clockHand;
+
+    Segment(int maximumSlabs) {
+      this.maximumSlabs = maximumSlabs;
+      this.slabClass = new int[maximumSlabs];
+      this.slabRecords = new int[maximumSlabs];
+      this.slabUsed = new long[maximumSlabs];
+      Arrays.fill(freeChunks, -1L);
+      this.index = ByteBuffer.allocateDirect(INITIAL_SLOTS * SLOT_SIZE);
+      this.slotMask = INITIAL_SLOTS - 1;
+    }
+
+    String get(int hash, byte[] keyBytes) {
+      int slot = find(hash, keyBytes);
+      if (slot < 0) {
+        return null;
+      }
+      int position = slot * SLOT_SIZE;
+      index.putInt(position + 4, index.getInt(position + 4) | REFERENCED);
+      long address = index.getLong(position + 8);
+      slabUsed[(int) (address >>> 32)] = ++tick;
+      ByteBuffer slab = slabs.get((int) (address >>> 32));
+      int offset = (int) address;
+      int keyLength = slab.getInt(offset);
+      byte[] valueBytes = new byte[slab.getInt(offset + 4)];
+      slab.get(offset + HEADER_SIZE + keyLength, valueBytes);
+      return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    boolean put(int hash, byte[] keyBytes, byte[] valueBytes) {
+      int existing = find(hash, keyBytes);
+      if (existing >= 0) {
+        delete(existing);
+      }
+      int sizeClass = sizeClass(HEADER_SIZE + keyBytes.length + valueBytes.length);
+      long address = allocate(sizeClass);
+      if (address < 0) {
+        return false;
+      }
+      ByteBuffer slab = slabs.get((int) (address >>> 32));
+      int offset = (int) address;
+      slab.putInt(offset, keyBytes.length);
+      slab.putInt(offset + 4, valueBytes.length);
+      slab.put(offset + HEADER_SIZE, keyBytes);
+      slab.put(offset + HEADER_SIZE + keyBytes.length, valueBytes);
+
+      if ((size + deleted + 1) * 2 > slotMask + 1) {
+        resize(size * 4 > slotMask + 1 ? (slotMask + 1) * 2 : slotMask + 1);
+      }
+      int slot = hash & slotMask;
+      while ((index.getInt(slot * SLOT_SIZE + 4) & STATE_MASK) == FULL) {
+        slot = (slot + 1) & slotMask;
+      }
+      int position = slot * SLOT_SIZE;
+      if ((index.getInt(position + 4) & STATE_MASK) == DELETED) {
+        deleted--;
+      }
+      index.putInt(position, hash);
+      index.putInt(position + 4, FULL | (sizeClass << 16));
+      index.putLong(position + 8, address);
+      size++;
+      return true;
+    }
+
+    int find(int hash, byte[] keyBytes) {
+      int slot = hash & slotMask;
+      while (true) {
+        int position = slot * SLOT_SIZE;
+        int state = index.getInt(position + 4) & STATE_MASK;
+        if (state == EMPTY) {
+          return -1;
+        }
+        if (state == FULL && index.getInt(position) == hash && keyEquals(index.getLong(position + 8), keyBytes)) {
+          return slot;
+        }
+        slot = (slot + 1) & slotMask;
+      }
+    }
+
+    void delete(int slot) {
+      int position = slot * SLOT_SIZE;
+      int sizeClass = (index.getInt(position + 4) >>> 16) & 0xff;
+      free(index.getLong(position + 8), sizeClass);
+      index.putInt(position + 4, DELETED);
+      size--;
+      deleted++;
+    }
+
+    private boolean keyEquals(long address, byte[] keyBytes) {
+      ByteBuffer slab = slabs.get((int) (address >>> 32));
+      int offset = (int) address;
+      if (slab.getInt(offset) != keyBytes.length) {
+        return false;
+      }
+      for (int i = 0; i < keyBytes.length; i++) {
+        if (slab.get(offset + HEADER_SIZE + i) != keyBytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private long allocate(int sizeClass) {
+      if (freeChunks[sizeClass] < 0) {
+        if (slabs.size() < maximumSlabs) {
+          slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+          carve(slabs.size() - 1, sizeClass);
+        } else if (!evictFrom(sizeClass) && !reassign(sizeClass)) {
+          return -1;
+        }
+      }
+      long address = freeChunks[sizeClass];
+      int slabId = (int) (address >>> 32);
+      freeChunks[sizeClass] = slabs.get(slabId).getLong((int) address);
+      slabRecords[slabId]++;
+      slabUsed[slabId] = ++tick;
+      return address;
+    }
+
+    private void free(long address, int sizeClass) {
+      int slabId = (int) (address >>> 32);
+      slabs.get(slabId).putLong((int) address, freeChunks[sizeClass]);
+      freeChunks[sizeClass] = address;
+      slabRecords[slabId]--;
+    }
+
+    private void carve(int slabId, int sizeClass) {
+      ByteBuffer slab = slabs.get(slabId);
+      slabClass[slabId] = sizeClass;
+      int chunkSize = 1 << (sizeClass + MIN_CHUNK_SHIFT);
+      for (int offset = SLAB_SIZE - chunkSize; offset >= 0; offset -= chunkSize) {
+        slab.putLong(offset, freeChunks[sizeClass]);
+        freeChunks[sizeClass] = address(slabId, offset);
+      }
+    }
+
+    /**
+     * Moves a slab of another class to this one: an empty slab if there is one, otherwise the
+     * least recently used, evicting its records. False if every slab already has this class.
+     */
+    private boolean reassign(int sizeClass) {
+      int victim = -1;
+      for (int i = 0; i < slabs.size(); i++) {
+        if (slabClass[i] == sizeClass) {
+          continue;
+        }
+        if (slabRecords[i] == 0) {
+          victim = i;
+          break;
+        }
+        if (victim < 0 || slabUsed[i] < slabUsed[victim]) {
+          victim = i;
+        }
+      }
+      if (victim < 0) {
+        return false;
+      }
+      if (slabRecords[victim] > 0) {
+        for (int slot = 0; slot <= slotMask; slot++) {
+          int position = slot * SLOT_SIZE;
+          if ((index.getInt(position + 4) & STATE_MASK) == FULL && (int) (index.getLong(position + 8) >>> 32) == victim) {
+            delete(slot);
+            evictionListener.run();
+          }
+        }
+      }
+      // Unlink the slab's chunks from its old class's free list before carving it anew.
+      int oldClass = slabClass[victim];
+      long kept = -1L;
+      long tail = -1L;
+      for (long chunk = freeChunks[oldClass]; chunk >= 0; ) {
+        long next = slabs.get((int) (chunk >>> 32)).getLong((int) chunk);
+        if ((int) (chunk >>> 32) != victim) {
+          if (tail < 0) {
+            kept = chunk;
+          } else {
+            slabs.get((int) (tail >>> 32)).putLong((int) tail, chunk);
+          }
+          tail = chunk;
+        }
+        chunk = next;
+      }
+      if (tail >= 0) {
+        slabs.get((int) (tail >>> 32)).putLong((int) tail, -1L);
+      }
+      freeChunks[oldClass] = kept;
+      carve(victim, sizeClass);
+      return true;
+    }
+
+    /** Second-chance sweep for a record of the same size class; gives up after two laps. */
+    private boolean evictFrom(int sizeClass) {
+      int slots = slotMask + 1;
+      for (int step = 0; step < 2 * slots; step++) {
+        int slot = clockHand;
+        clockHand = (clockHand + 1) & slotMask;
+        int position = slot * SLOT_SIZE;
+        int flags = index.getInt(position + 4);
+        if ((flags & STATE_MASK) != FULL || ((flags >>> 16) & 0xff) != sizeClass) {
+          continue;
+        }
+        if ((flags & REFERENCED) != 0) {
+          index.putInt(position + 4, flags & ~REFERENCED);
+          continue;
+        }
+        delete(slot);
+        evictionListener.run();
+        return true;
+      }
+      return false;
+    }
+
+    private void resize(int slots) {
+      ByteBuffer old = index;
+      int oldSlots = slotMask + 1;
+      index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+      slotMask = slots - 1;
+      deleted = 0;
+      clockHand = 0;
+      for (int i = 0; i < oldSlots; i++) {
+        int position = i * SLOT_SIZE;
+        if ((old.getInt(position + 4) & STATE_MASK) != FULL) {
+          continue;
+        }
+        int slot = old.getInt(position) & slotMask;
+        while ((index.getInt(slot * SLOT_SIZE + 4) & STATE_MASK) != EMPTY) {
+          slot = (slot + 1) & slotMask;
+        }
+        int target = slot * SLOT_SIZE;
+        index.putInt(target, old.getInt(position));
+        index.putInt(target + 4, old.getInt(position + 4));
+        index.putLong(target + 8, old.getLong(position + 8));
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.java.multithreading.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records cache events on striped {@link LongAdder}s, so concurrent readers updating the same
+ * counter land on different cells instead of fighting over one cache line.
+ */
+public final class StatsCounter {
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder loadSuccessCount = new LongAdder();
+  private final LongAdder loadFailureCount = new LongAdder();
+  private final LongAdder totalLoadTime = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+  public void recordHit() {
+    hitCount.increment();
+  }
+
+  public void recordMiss() {
+    missCount.increment();
+  }
+
+  public void recordLoadSuccess(long loadTimeNanos) {
+    loadSuccessCount.increment();
+    totalLoadTime.add(loadTimeNanos);
+    loadLatency.record(loadTimeNanos);
+  }
+
+  public void recordLoadFailure(long loadTimeNanos) {
+    loadFailureCount.increment();
+    totalLoadTime.add(loadTimeNanos);
+    loadLatency.record(loadTimeNanos);
+  }
+
+  public void recordEviction() {
+    evictionCount.increment();
+  }
+
+  public CacheStats snapshot() {
+    return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(),
+        loadFailureCount.sum(), totalLoadTime.sum(), evictionCount.sum(), loadLatency.snapshot());
+  }
+}
@@ -0,0 +1,141 @@
+package com.java.multithreading.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: schedule, reschedule and cancel are O(1), and advancing the clock
+ * only visits the buckets whose time slot has passed instead of scanning every timer.
+ *
+ * Level 0 buckets are ~1ms wide (64 of them cover ~67ms), each next level is 64 times coarser,
+ * and anything further than ~4.9h sits in an overflow bucket. Timers in a coarse bucket are
+ * cascaded into finer ones as the clock reaches them, so each fires within one level 0 tick.
+ *
+ * The wheel never calls out while holding its monitor: {@link #advance} returns the expired
+ * values and the caller acts on them, which keeps it safe to use from under other locks.
+ */
+public final class TimerWheel<T> {
+  private static final int[] BUCKETS = {64, 64, 64, 64, 1};
+  private static final long[] SPANS = {1L << 20, 1L << 26, 1L << 32, 1L << 38, 1L << 44, 1L << 44};
+  private static final int[] SHIFT = new int[BUCKETS.length];
+
+  static {
+    for (int i = 0; i < SHIFT.length; i++) {
+      SHIFT[i] = Long.numberOfTrailingZeros(SPANS[i]);
+    }
+  }
+
+  private final Timer<T>[][] wheel;
+  private final long origin;
+  private long nanos;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public TimerWheel(long currentTimeNanos) {
+    this.origin = currentTimeNanos;
+    this.wheel = new Timer[BUCKETS.length][];
+    for (int i = 0; i < BUCKETS.length; i++) {
+      wheel[i] = new Timer[BUCKETS[i]];
+      for (int j = 0; j < BUCKETS[i]; j++) {
+        Timer<T> sentinel = new Timer<>(null);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        wheel[i][j] = sentinel;
+      }
+    }
+  }
+
+  /** Schedules the timer to fire at the given {@link System#nanoTime()}, replacing any earlier deadline. */
+  public synchronized void schedule(Timer<T> timer, long deadlineNanos) {
+    if (timer.next != null) {
+      unlink(timer);
+    }
+    timer.deadline = deadlineNanos - origin;
+    link(findBucket(timer.deadline), timer);
+  }
+
+  public synchronized void deschedule(Timer<T> timer) {
+    if (timer.next != null) {
+      unlink(timer);
+    }
+  }
+
+  /** Moves the clock forward and returns the values whose timers are now due. */
+  public List<T> advance(long currentTimeNanos) {
+    List<T> expired = new ArrayList<>();
+    synchronized (this) {
+      long previous = nanos;
+      nanos = currentTimeNanos - origin;
+      for (int i = 0; i < SHIFT.length; i++) {
+        long previousTicks = previous >>> SHIFT[i];
+        long currentTicks = nanos >>> SHIFT[i];
+        if (currentTicks - previousTicks <= 0) {
+          break;
+        }
+        expire(i, previousTicks, currentTicks - previousTicks, expired);
+      }
+    }
+    return expired;
+  }
+
+  private void expire(int level, long previousTicks, long delta, List<T> expired) {
+    Timer<T>[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    int steps = (int) Math.min(1 + delta, buckets.length);
+    int start = (int) (previousTicks & mask);
+    for (int i = start; i < start + steps; i++) {
+      Timer<T> sentinel = buckets[i & mask];
+      Timer<T> timer = sentinel.next;
+      sentinel.prev = sentinel;
+      sentinel.next = sentinel;
+      while (timer != sentinel) {
+        Timer<T> next = timer.next;
+        timer.prev = null;
+        timer.next = null;
+        if (timer.deadline - nanos <= 0) {
+          expired.add(timer.value);
+        } else {
+          link(findBucket(timer.deadline), timer);
+        }
+        timer = next;
+      }
+    }
+  }
+
+  private Timer<T> findBucket(long deadline) {
+    long duration = deadline - nanos;
+    int last = wheel.length - 1;
+    for (int i = 0; i < last; i++) {
+      if (duration < SPANS[i + 1]) {
+        long ticks = deadline >>> SHIFT[i];
+        return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+      }
+    }
+    return wheel[last][0];
+  }
+
+  private void link(Timer<T> sentinel, Timer<T> timer) {
+    timer.prev = sentinel.prev;
+    timer.next = sentinel;
+    sentinel.prev.next = timer;
+    sentinel.prev = timer;
+  }
+
+  private void unlink(Timer<T> timer) {
+    timer.prev.next = timer.next;
+    timer.next.prev = timer.prev;
+    timer.prev = null;
+    timer.next = null;
+  }
+
+  /** Intrusive list node; a timer belongs to at most one bucket at a time. */
+  public static final class Timer<T> {
+    final T value;
+    long deadline;
+    Timer<T> prev;
+    Timer<T> next;
+
+    public Timer(T value) {
+      this.value = value;
+    }
+  }
+}
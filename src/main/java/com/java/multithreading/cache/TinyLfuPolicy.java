@@ -0,0 +1,415 @@
+package com.java.multithreading.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * W-TinyLFU eviction bookkeeping for a cache bounded by total weight. With a weight of 1 per
+ * key the bound is an entry count; with a byte estimate per key it is a memory budget.
+ *
+ * New keys land in a small LRU window. When the window overflows its oldest key competes
+ * with the oldest key of the main segmented LRU (probation + protected) and the one with
+ * the lower estimated frequency is evicted, which keeps one-off scans from flushing hot keys.
+ *
+ * The keys are striped over independent segments, each with its own lock, sketch, window and
+ * queues, so there is no global lock. The weight budget is not split between them: the total
+ * weight is one shared counter, and when it is over budget the segments give up their least
+ * recently used keys in turn. Any entry no heavier than the whole budget can therefore be
+ * cached, however many segments there are. Reads only tryLock their segment and drop the
+ * reordering when it is busy; a lost access is harmless for eviction quality.
+ */
+public class TinyLfuPolicy {
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+  private final Consumer<String> evictionListener;
+  private final long maximumWeight;
+  /** Weight of every queue of every segment together. */
+  private final AtomicLong weight = new AtomicLong();
+  /** Segment to take the next victim from when the budget is exceeded. */
+  private final AtomicInteger victimSegment = new AtomicInteger();
+
+  /**
+   * @param evictionListener called with each evicted key while its segment lock is held, so the
+   *                         owner can drop the mapping before the key can be written again
+   */
+  public TinyLfuPolicy(long maximumWeight, Consumer<String> evictionListener) {
+    if (maximumWeight <= 0) {
+      throw new IllegalArgumentException("maximumWeight must be positive: " + maximumWeight);
+    }
+    int concurrency = FrequencySketch.ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 4);
+    int count = 1;
+    while (count < concurrency && maximumWeight / (count << 1) >= 16) {
+      count <<= 1;
+    }
+    this.segments = new Segment[count];
+    this.segmentMask = count - 1;
+    this.evictionListener = evictionListener;
+    this.maximumWeight = maximumWeight;
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment(maximumWeight / count + (i < maximumWeight % count ? 1 : 0));
+    }
+  }
+
+  /** Records a read. Never blocks: the access is dropped when the segment is busy. */
+  public void recordAccess(String key) {
+    int hash = spread(key.hashCode());
+    Segment segment = segmentFor(hash);
+    if (segment.lock.tryLock()) {
+      try {
+        segment.onAccess(key, hash);
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Records a newly written key and evicts whatever no longer fits. A key that is still loading
+   * can be written with weight 0 and given its real weight by {@link #recordUpdate} later.
+   */
+  public void recordWrite(String key, int weight) {
+    int hash = spread(key.hashCode());
+    Segment segment = segmentFor(hash);
+    segment.lock.lock();
+    try {
+      segment.onWrite(key, hash, weight);
+    } finally {
+      segment.lock.unlock();
+    }
+    evictExcess();
+  }
+
+  /** Changes the weight of a tracked key and evicts whatever no longer fits. */
+  public void recordUpdate(String key, int weight) {
+    Segment segment = segmentFor(spread(key.hashCode()));
+    segment.lock.lock();
+    try {
+      segment.onUpdate(key, weight);
+    } finally {
+      segment.lock.unlock();
+    }
+    evictExcess();
+  }
+
+  /**
+   * Evicts least recently used keys, one segment after another, until the total weight is
+   * within budget. Runs with no segment lock held, so taking each in turn cannot deadlock.
+   */
+  private void evictExcess() {
+    int idle = 0;
+    while (weight.get() > maximumWeight && idle < segments.length) {
+      Segment segment = segments[victimSegment.getAndIncrement() & segmentMask];
+      segment.lock.lock();
+      try {
+        idle = segment.evictOne() ? 0 : idle + 1;
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Runs {@code removal} under the key's segment lock and forgets the key if it reports that
+   * the mapping was removed. Keeping both steps under one lock stops a concurrent re-insert
+   * of the same key from being recorded before the old entry is unlinked.
+   */
+  public boolean remove(String key, BooleanSupplier removal) {
+    Segment segment = segmentFor(spread(key.hashCode()));
+    segment.lock.lock();
+    try {
+      if (!removal.getAsBoolean()) {
+        return false;
+      }
+      segment.onRemove(key);
+      return true;
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Up to {@code limit} keys, hottest first: ordered by their estimated access frequency, ties
+   * broken by protected, probation and window order, most recently used first. Segments are
+   * copied one at a time, so a reader only ever waits on the segment being copied.
+   */
+  public List<String> hottest(int limit) {
+    List<Ranked> ranked = new ArrayList<>();
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        segment.rank(ranked);
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    ranked.sort((a, b) -> Integer.compare(b.frequency, a.frequency));
+    List<String> keys = new ArrayList<>(Math.min(limit, ranked.size()));
+    for (int i = 0; i < ranked.size() && i < limit; i++) {
+      keys.add(ranked.get(i).key);
+    }
+    return keys;
+  }
+
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.data.size();
+    }
+    return size;
+  }
+
+  /** Sum of the weights of all tracked keys. */
+  public long weightedSize() {
+    return weight.get();
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[(hash >>> 16) & segmentMask];
+  }
+
+  private static int spread(int hash) {
+    hash ^= hash >>> 17;
+    hash *= 0xed5ad4bb;
+    hash ^= hash >>> 11;
+    return hash;
+  }
+
+  private static final class Node {
+    final String key;
+    final int hash;
+    int weight;
+    int queue;
+    Node prev;
+    Node next;
+
+    Node(String key, int hash) {
+      this.key = key;
+      this.hash = hash;
+    }
+  }
+
+  private static final class Ranked {
+    final String key;
+    final int frequency;
+
+    Ranked(String key, int frequency) {
+      this.key = key;
+      this.frequency = frequency;
+    }
+  }
+
+  /**
+   * Head is the least recently used node, tail the most recent one. Weight changes are added
+   * to the policy's shared total as well.
+   */
+  private static final class AccessQueue {
+    final AtomicLong shared;
+    Node head;
+    Node tail;
+    long weight;
+
+    AccessQueue(AtomicLong shared) {
+      this.shared = shared;
+    }
+
+    void addWeight(long delta) {
+      weight += delta;
+      shared.addAndGet(delta);
+    }
+
+    void addLast(Node node) {
+      node.prev = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      addWeight(node.weight);
+    }
+
+    void unlink(Node node) {
+      if (node.prev == null) {
+        head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      addWeight(-node.weight);
+    }
+
+    void moveToLast(Node node) {
+      if (node != tail) {
+        unlink(node);
+        addLast(node);
+      }
+    }
+  }
+
+  private final class Segment {
+    final ReentrantLock lock = new ReentrantLock();
+    final Map<String, Node> data = new HashMap<>();
+    final AccessQueue[] queues = {new AccessQueue(weight), new AccessQueue(weight), new AccessQueue(weight)};
+    final FrequencySketch sketch;
+    final long maximumWindow;
+    final long maximumProtected;
+
+    /** The share of the budget only sizes the segment's sketch, window and protected queue. */
+    Segment(long share) {
+      this.sketch = new FrequencySketch(Math.min(share, 1024));
+      this.maximumWindow = Math.max(1, share / 100);
+      this.maximumProtected = Math.max(0, share - maximumWindow) * 8 / 10;
+    }
+
+    void onAccess(String key, int hash) {
+      Node node = data.get(key);
+      if (node == null) {
+        return;
+      }
+      sketch.increment(hash);
+      if (node.queue == PROBATION) {
+        move(node, PROTECTED);
+        while (queues[PROTECTED].weight > maximumProtected && queues[PROTECTED].head != null) {
+          move(queues[PROTECTED].head, PROBATION);
+        }
+      } else {
+        queues[node.queue].moveToLast(node);
+      }
+    }
+
+    void onWrite(String key, int hash, int weight) {
+      sketch.increment(hash);
+      Node node = data.get(key);
+      if (node != null) {
+        setWeight(node, weight);
+        queues[node.queue].moveToLast(node);
+      } else {
+        node = new Node(key, hash);
+        node.weight = weight;
+        node.queue = WINDOW;
+        data.put(key, node);
+        queues[WINDOW].addLast(node);
+        if (data.size() > sketch.capacity()) {
+          growSketch();
+        }
+      }
+      balance();
+    }
+
+    void onUpdate(String key, int weight) {
+      Node node = data.get(key);
+      if (node != null) {
+        setWeight(node, weight);
+        balance();
+      }
+    }
+
+    /** Doubles the sketch and replays the estimates of the resident keys into it. */
+    private void growSketch() {
+      int[] frequencies = new int[data.size()];
+      int i = 0;
+      for (Node node : data.values()) {
+        frequencies[i++] = sketch.frequency(node.hash);
+      }
+      sketch.ensureCapacity(2L * data.size());
+      i = 0;
+      for (Node node : data.values()) {
+        for (int count = frequencies[i++]; count > 0; count--) {
+          sketch.increment(node.hash);
+        }
+      }
+    }
+
+    private void setWeight(Node node, int weight) {
+      queues[node.queue].addWeight(weight - node.weight);
+      node.weight = weight;
+    }
+
+    /** Moves window overflow into the main space; {@link #evictExcess} then makes room. */
+    private void balance() {
+      while (queues[WINDOW].weight > maximumWindow && queues[WINDOW].head != null) {
+        admit(queues[WINDOW].head);
+      }
+    }
+
+    /** Evicts the segment's least recently used key, from the window last; false if it has none. */
+    boolean evictOne() {
+      Node victim = queues[PROBATION].head != null ? queues[PROBATION].head
+          : queues[PROTECTED].head != null ? queues[PROTECTED].head : queues[WINDOW].head;
+      if (victim == null) {
+        return false;
+      }
+      evict(victim);
+      return true;
+    }
+
+    void rank(List<Ranked> ranked) {
+      for (int queue : new int[] {PROTECTED, PROBATION, WINDOW}) {
+        for (Node node = queues[queue].tail; node != null; node = node.prev) {
+          ranked.add(new Ranked(node.key, sketch.frequency(node.hash)));
+        }
+      }
+    }
+
+    void onRemove(String key) {
+      Node node = data.remove(key);
+      if (node != null) {
+        queues[node.queue].unlink(node);
+      }
+    }
+
+    /**
+     * Moves the window's oldest key into the main space. When the cache is over budget the key
+     * has to beat this segment's oldest main space key on estimated frequency and replaces it,
+     * otherwise it is evicted instead. A segment with no main space keys of its own has nothing
+     * to compare against, and admits the key for other segments to make room.
+     */
+    private void admit(Node candidate) {
+      if (weight.get() <= maximumWeight) {
+        move(candidate, PROBATION);
+        return;
+      }
+      Node victim = queues[PROBATION].head != null ? queues[PROBATION].head : queues[PROTECTED].head;
+      if (candidate.weight > maximumWeight) {
+        evict(candidate);
+      } else if (victim == null) {
+        move(candidate, PROBATION);
+      } else if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+        move(candidate, PROBATION);
+        evict(victim);
+      } else {
+        evict(candidate);
+      }
+    }
+
+    private void move(Node node, int queue) {
+      queues[node.queue].unlink(node);
+      node.queue = queue;
+      queues[queue].addLast(node);
+    }
+
+    private void evict(Node node) {
+      queues[node.queue].unlink(node);
+      data.remove(node.key);
+      evictionListener.accept(node.key);
+    }
+  }
+}
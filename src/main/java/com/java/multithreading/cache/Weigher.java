@@ -0,0 +1,23 @@
+package com.java.multithreading.cache;
+
+/** Computes the weight of a cache entry once its value is loaded; weights must not be negative. */
+@FunctionalInterface
+public interface Weigher {
+  int weigh(String key, String value);
+
+  /** Every entry weighs 1, so the cache's maximum weight is an entry count. */
+  static Weigher singleton() {
+    return (key, value) -> 1;
+  }
+
+  /**
+   * Approximate retained heap bytes of an entry: both strings as compact Latin-1 with their
+   * headers, plus the cache's per-entry bookkeeping (map node, future, policy node, timer).
+   */
+  static Weigher heapBytes() {
+    return (key, value) -> {
+      long bytes = 256L + 56 + key.length() + (value == null ? 0 : 56 + value.length());
+      return (int) Math.min(bytes, Integer.MAX_VALUE);
+    };
+  }
+}
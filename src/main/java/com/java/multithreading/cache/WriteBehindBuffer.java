@@ -0,0 +1,243 @@
+package com.java.multithreading.cache;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Collects writes and hands them to a {@link CacheWriter} in batches, so the backend sees one call
+ * per batch instead of one per write, and a key written many times between flushes only once.
+ *
+ * A batch is flushed on a daemon thread once {@code batchSize} keys are pending, and otherwise
+ * every {@code maxDelay}. Writers only take the shared side of a read-write lock to add to the
+ * pending map; a flush takes the exclusive side just long enough to swap in an empty map. Flushes
+ * run one at a time so a newer value of a key never reaches the backend before an older one. A
+ * failed batch is merged back under any newer writes. Scheduled flushes after a failure wait
+ * {@code maxDelay}, doubling with every further failure up to {@link #MAX_BACKOFF_DELAYS} times
+ * that, so a backend that is down is not hammered.
+ *
+ * Once four batches are pending, writes of keys not already pending wait for a flush to succeed,
+ * and are rejected with an IllegalStateException if none does within the longest retry delay.
+ * The buffer therefore stays bounded however long the backend is down. Writes after
+ * {@link #close()} are rejected with an IllegalStateException.
+ */
+public final class WriteBehindBuffer implements Closeable {
+  /** Longest wait between retries of a failing writer, in multiples of {@code maxDelay}. */
+  private static final int MAX_BACKOFF_DELAYS = 64;
+
+  private final CacheWriter writer;
+  private final int batchSize;
+  private final int maximumPending;
+  private final long maxDelayNanos;
+  private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final AtomicBoolean flushQueued = new AtomicBoolean();
+  private final ReentrantLock roomLock = new ReentrantLock();
+  private final Condition room = roomLock.newCondition();
+  private volatile long retryAt;
+  private volatile boolean closed;
+  private long backoff;
+  private final ScheduledExecutorService flusher;
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private ConcurrentHashMap<String, String> pending = new ConcurrentHashMap<>();
+
+  public WriteBehindBuffer(CacheWriter writer, int batchSize, long maxDelay, TimeUnit unit) {
+    if (batchSize <= 0 || maxDelay <= 0) {
+      throw new IllegalArgumentException("batchSize and maxDelay must be positive");
+    }
+    this.writer = writer;
+    this.batchSize = batchSize;
+    this.maximumPending = (int) Math.min(Integer.MAX_VALUE, 4L * batchSize);
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "cache-write-behind");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushIfDue, maxDelay, maxDelay, unit);
+  }
+
+  /**
+   * Queues the value for the backend, replacing any value of the same key not yet flushed. Waits
+   * while the buffer is full; throws IllegalStateException if it stays full.
+   */
+  public void write(String key, String value) {
+    Objects.requireNonNull(value);
+    if (closed) {
+      throw new IllegalStateException("write-behind buffer is closed");
+    }
+    awaitRoom(key);
+    int size;
+    swapLock.readLock().lock();
+    try {
+      if (pending.put(key, value) != null) {
+        coalesced.increment();
+      }
+      size = pending.size();
+    } finally {
+      swapLock.readLock().unlock();
+    }
+    if (size >= batchSize) {
+      queueFlush();
+    }
+  }
+
+  private void queueFlush() {
+    if (flushQueued.compareAndSet(false, true)) {
+      try {
+        flusher.execute(() -> {
+          flushQueued.set(false);
+          flushIfDue();
+        });
+      } catch (RejectedExecutionException e) {
+        // A write raced close(), which may already have made its last flush; write it now.
+        flushQueued.set(false);
+        flushQuietly();
+      }
+    }
+  }
+
+  /** Waits for a successful flush while the buffer is full, unless the key is already pending. */
+  private void awaitRoom(String key) {
+    if (pending() < maximumPending || pending.containsKey(key)) {
+      return;
+    }
+    queueFlush();
+    long deadline = System.nanoTime() + MAX_BACKOFF_DELAYS * maxDelayNanos;
+    roomLock.lock();
+    try {
+      while (pending() >= maximumPending) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          throw new IllegalStateException("write-behind buffer is full with " + maximumPending
+              + " keys; the writer is failing or too slow");
+        }
+        room.awaitNanos(left);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted waiting for the write-behind buffer", e);
+    } finally {
+      roomLock.unlock();
+    }
+  }
+
+  /** Writes everything pending to the backend now; returns the number of keys written. */
+  public int flush() throws Exception {
+    flushLock.lock();
+    try {
+      Map<String, String> batch;
+      swapLock.writeLock().lock();
+      try {
+        if (pending.isEmpty()) {
+          return 0;
+        }
+        batch = pending;
+        pending = new ConcurrentHashMap<>();
+      } finally {
+        swapLock.writeLock().unlock();
+      }
+      try {
+        writer.writeAll(Collections.unmodifiableMap(batch));
+      } catch (Exception | Error e) {
+        failures.increment();
+        requeue(batch);
+        backoff = backoff == 0 ? maxDelayNanos : Math.min(backoff * 2, MAX_BACKOFF_DELAYS * maxDelayNanos);
+        retryAt = System.nanoTime() + backoff;
+        throw e;
+      }
+      backoff = 0;
+      retryAt = 0;
+      batches.increment();
+      written.add(batch.size());
+      roomLock.lock();
+      try {
+        room.signalAll();
+      } finally {
+        roomLock.unlock();
+      }
+      return batch.size();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private void requeue(Map<String, String> batch) {
+    swapLock.readLock().lock();
+    try {
+      for (Map.Entry<String, String> entry : batch.entrySet()) {
+        pending.putIfAbsent(entry.getKey(), entry.getValue());
+      }
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  /** Flushes unless a failed flush is still backing off. */
+  private void flushIfDue() {
+    if (retryAt == 0 || System.nanoTime() - retryAt >= 0) {
+      flushQuietly();
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (Throwable e) {
+      // An Error thrown out of here would cancel the scheduled flushes for good.
+      System.err.println("write-behind flush failed, will retry: " + e);
+    }
+  }
+
+  public int pending() {
+    swapLock.readLock().lock();
+    try {
+      return pending.size();
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  /** Writes dropped because a newer value of the same key replaced them before a flush. */
+  public long coalesced() {
+    return coalesced.sum();
+  }
+
+  public long written() {
+    return written.sum();
+  }
+
+  public long batches() {
+    return batches.sum();
+  }
+
+  public long failures() {
+    return failures.sum();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /** Stops the flusher, rejects further writes and makes a last attempt to write what is pending. */
+  @Override
+  public void close() {
+    closed = true;
+    flusher.shutdownNow();
+    flushQuietly();
+  }
+}
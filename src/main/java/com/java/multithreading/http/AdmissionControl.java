@@ -0,0 +1,161 @@
+package com.java.multithreading.http;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor in front of the handler pool that bounds the work the server accepts. Up to
+ * {@link ConcurrencyLimit#limit()} requests run at once, up to {@code maxQueue} more wait in
+ * arrival order, and anything beyond that is shed straight away. A queued request that waited
+ * longer than {@code maxQueueWait} is shed when its turn comes instead of being served late.
+ *
+ * Engines hand the executor opaque tasks, so a shed task is still run, on the submitting thread
+ * with {@link #shedding()} set; {@link Router#dispatch} then answers 503 with Retry-After
+ * without calling the handler. Latency samples for the limit run from admission to the end of
+ * the task, so they include time spent in the handler pool's own queue.
+ */
+public final class AdmissionControl implements Executor {
+  private static final ThreadLocal<AdmissionControl> SHEDDING = new ThreadLocal<>();
+
+  private final Executor delegate;
+  private final ConcurrencyLimit limit;
+  private final int maxQueue;
+  private final long maxQueueWaitNanos;
+  private final int retryAfterSeconds;
+  private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+  private int inFlight;
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder shed = new LongAdder();
+
+  public AdmissionControl(Executor delegate, ConcurrencyLimit limit, int maxQueue, long maxQueueWait, TimeUnit unit) {
+    this.delegate = delegate;
+    this.limit = limit;
+    this.maxQueue = maxQueue;
+    this.maxQueueWaitNanos = unit.toNanos(maxQueueWait);
+    this.retryAfterSeconds = (int) Math.max(1, unit.toSeconds(maxQueueWait));
+  }
+
+  /** The controller shedding the task running on this thread, or null if it was admitted. */
+  public static AdmissionControl shedding() {
+    return SHEDDING.get();
+  }
+
+  public HttpResponse overloaded() {
+    return HttpResponse.text(503, "server overloaded, retry later")
+        .header("Retry-After", Integer.toString(retryAfterSeconds));
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    long now = System.nanoTime();
+    synchronized (this) {
+      if (inFlight < limit.limit()) {
+        inFlight++;
+      } else if (queue.size() < maxQueue) {
+        queue.add(new Queued(task, now));
+        return;
+      } else {
+        task = new Shed(task);
+      }
+    }
+    if (task instanceof Shed) {
+      task.run();
+    } else {
+      start(task, now);
+    }
+  }
+
+  private void start(Runnable task, long admittedAt) {
+    admitted.increment();
+    delegate.execute(() -> {
+      try {
+        task.run();
+      } finally {
+        finish(System.nanoTime() - admittedAt);
+      }
+    });
+  }
+
+  /**
+   * Records the sample and hands the finished task's slot to the oldest queued task, shedding
+   * any that waited too long. The slot is given up instead if the limit has dropped below it.
+   */
+  private void finish(long latencyNanos) {
+    int running;
+    synchronized (this) {
+      running = inFlight;
+    }
+    limit.onSample(latencyNanos, running);
+    while (true) {
+      Queued next;
+      long now = System.nanoTime();
+      synchronized (this) {
+        if (queue.isEmpty() || inFlight > limit.limit()) {
+          inFlight--;
+          return;
+        }
+        next = queue.poll();
+      }
+      if (now - next.enqueuedAt <= maxQueueWaitNanos) {
+        start(next.task, now);
+        return;
+      }
+      new Shed(next.task).run();
+    }
+  }
+
+  public int inFlight() {
+    synchronized (this) {
+      return inFlight;
+    }
+  }
+
+  public int queued() {
+    synchronized (this) {
+      return queue.size();
+    }
+  }
+
+  public int limit() {
+    return limit.limit();
+  }
+
+  public long admitted() {
+    return admitted.sum();
+  }
+
+  public long shed() {
+    return shed.sum();
+  }
+
+  private static final class Queued {
+    final Runnable task;
+    final long enqueuedAt;
+
+    Queued(Runnable task, long enqueuedAt) {
+      this.task = task;
+      this.enqueuedAt = enqueuedAt;
+    }
+  }
+
+  private final class Shed implements Runnable {
+    private final Runnable task;
+
+    Shed(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      shed.increment();
+      SHEDDING.set(AdmissionControl.this);
+      try {
+        task.run();
+      } finally {
+        SHEDDING.remove();
+      }
+    }
+  }
+}
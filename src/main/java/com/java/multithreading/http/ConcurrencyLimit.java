@@ -0,0 +1,141 @@
+package com.java.multithreading.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many requests {@link AdmissionControl} lets run at once. Adaptive limits are fed the
+ * latency of every finished request, measured from admission, and move the limit with it.
+ */
+public interface ConcurrencyLimit {
+  int limit();
+
+  void onSample(long latencyNanos, int inFlight);
+
+  static ConcurrencyLimit fixed(int limit) {
+    return new ConcurrencyLimit() {
+      @Override
+      public int limit() {
+        return limit;
+      }
+
+      @Override
+      public void onSample(long latencyNanos, int inFlight) {
+      }
+
+      @Override
+      public String toString() {
+        return "fixed(" + limit + ")";
+      }
+    };
+  }
+
+  /**
+   * Additive increase, multiplicative decrease against a latency target: a request slower than
+   * the target cuts the limit by 10%, at most once per target interval so one burst of slow
+   * requests is one cut; faster requests grow it by about one per limit's worth of requests
+   * while the limit is actually in use.
+   */
+  static ConcurrencyLimit aimd(int initial, int maximum, long targetLatency, TimeUnit unit) {
+    return new AimdLimit(initial, maximum, unit.toNanos(targetLatency));
+  }
+
+  /**
+   * Latency gradient with no fixed target: compares a short average of recent latency with the
+   * lowest latency seen, the cost of a request that did not queue. While recent latency is
+   * within 1.5x of that, the limit grows by about its square root per update; as queueing
+   * pushes it higher the limit shrinks in proportion, down to half per update. The baseline
+   * drifts up slowly so it can follow a real change in request cost.
+   */
+  static ConcurrencyLimit gradient(int initial, int maximum) {
+    return new GradientLimit(initial, maximum);
+  }
+
+  /** Parses {@code fixed}, {@code aimd}, {@code aimd:<target ms>} or {@code gradient}. */
+  static ConcurrencyLimit parse(String spec, int limit) {
+    if (spec.equals("fixed")) {
+      return fixed(limit);
+    }
+    if (spec.equals("gradient")) {
+      return gradient(Math.max(1, limit / 4), limit);
+    }
+    if (spec.equals("aimd") || spec.startsWith("aimd:")) {
+      long target = spec.equals("aimd") ? 100 : Long.parseLong(spec.substring(5));
+      return aimd(Math.max(1, limit / 4), limit, target, TimeUnit.MILLISECONDS);
+    }
+    throw new IllegalArgumentException("unknown limit: " + spec + " (fixed, aimd[:ms] or gradient)");
+  }
+
+  final class AimdLimit implements ConcurrencyLimit {
+    private final int maximum;
+    private final long targetNanos;
+    private double limit;
+    private long lastDecrease;
+
+    AimdLimit(int initial, int maximum, long targetNanos) {
+      this.limit = initial;
+      this.maximum = maximum;
+      this.targetNanos = targetNanos;
+      this.lastDecrease = System.nanoTime();
+    }
+
+    @Override
+    public synchronized int limit() {
+      return (int) limit;
+    }
+
+    @Override
+    public synchronized void onSample(long latencyNanos, int inFlight) {
+      long now = System.nanoTime();
+      if (latencyNanos > targetNanos) {
+        if (now - lastDecrease > targetNanos) {
+          limit = Math.max(1, limit * 0.9);
+          lastDecrease = now;
+        }
+      } else if (inFlight * 2 >= limit) {
+        limit = Math.min(maximum, limit + 1 / limit);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "aimd(" + TimeUnit.NANOSECONDS.toMillis(targetNanos) + "ms)";
+    }
+  }
+
+  final class GradientLimit implements ConcurrencyLimit {
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.5;
+    private static final double BASELINE_DRIFT = 1.0001;
+    private final int maximum;
+    private double limit;
+    private double shortLatency;
+    private double minLatency = Double.MAX_VALUE;
+
+    GradientLimit(int initial, int maximum) {
+      this.limit = initial;
+      this.maximum = maximum;
+    }
+
+    @Override
+    public synchronized int limit() {
+      return (int) limit;
+    }
+
+    @Override
+    public synchronized void onSample(long latencyNanos, int inFlight) {
+      minLatency = Math.min(minLatency * BASELINE_DRIFT, Math.max(1, latencyNanos));
+      shortLatency = shortLatency == 0 ? latencyNanos : shortLatency + (latencyNanos - shortLatency) / 10;
+      double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minLatency / shortLatency));
+      double target = limit * gradient + Math.sqrt(limit);
+      if (inFlight * 2 < limit) {
+        target = Math.min(target, limit);
+      }
+      limit = Math.max(1, Math.min(maximum, limit * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    @Override
+    public String toString() {
+      return "gradient";
+    }
+  }
+}
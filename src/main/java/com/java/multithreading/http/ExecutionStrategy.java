@@ -0,0 +1,65 @@
+package com.java.multithreading.http;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** How the server runs its handlers. */
+public enum ExecutionStrategy {
+  /** {@code threads} platform threads sharing one unbounded FIFO queue. */
+  FIXED,
+  /** A fork-join pool of {@code threads} with per-worker deques; blocking handlers tie up workers. */
+  WORK_STEALING,
+  /**
+   * A new virtual thread per request, so blocking handlers only park; {@code threads} is ignored.
+   * On JDKs without virtual threads this falls back to a cached pool of platform threads.
+   */
+  VIRTUAL;
+
+  public static ExecutionStrategy parse(String name) {
+    switch (name) {
+      case "fixed": return FIXED;
+      case "stealing": return WORK_STEALING;
+      case "virtual": return VIRTUAL;
+      default: throw new IllegalArgumentException("unknown executor: " + name + " (fixed, stealing or virtual)");
+    }
+  }
+
+  public ExecutorService create(int threads) {
+    switch (this) {
+      case FIXED:
+        return Executors.newFixedThreadPool(threads);
+      case WORK_STEALING:
+        return Executors.newWorkStealingPool(threads);
+      default:
+        return virtualThreadPerTask();
+    }
+  }
+
+  /** True if {@link #VIRTUAL} gets real virtual threads on this JDK. */
+  public static boolean virtualThreadsAvailable() {
+    return virtualFactory() != null;
+  }
+
+  private static ExecutorService virtualThreadPerTask() {
+    Method factory = virtualFactory();
+    if (factory != null) {
+      try {
+        return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        // fall through to platform threads
+      }
+    }
+    System.err.println("virtual threads need JDK 21+, using a cached platform thread pool");
+    return Executors.newCachedThreadPool();
+  }
+
+  /** Looked up reflectively so the code still compiles and runs on JDK 17. */
+  private static Method virtualFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
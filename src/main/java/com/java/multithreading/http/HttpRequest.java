@@ -0,0 +1,58 @@
+package com.java.multithreading.http;
+
+import java.util.Map;
+
+/** A parsed request, independent of the engine that received it. Header names are lower case. */
+public final class HttpRequest {
+  /** Largest request body either engine accepts. */
+  public static final int MAX_BODY = 1 << 20;
+
+  private final String method;
+  private final String path;
+  private final String rawQuery;
+  private final Map<String, String> headers;
+  private final byte[] body;
+  private final long receivedNanos = System.nanoTime();
+  private Map<String, String> parameters;
+
+  public HttpRequest(String method, String path, String rawQuery, Map<String, String> headers, byte[] body) {
+    this.method = method;
+    this.path = path;
+    this.rawQuery = rawQuery;
+    this.headers = headers;
+    this.body = body;
+  }
+
+  public String method() {
+    return method;
+  }
+
+  public String path() {
+    return path;
+  }
+
+  public String rawQuery() {
+    return rawQuery;
+  }
+
+  public String header(String name) {
+    return headers.get(name);
+  }
+
+  public byte[] body() {
+    return body;
+  }
+
+  /** {@link System#nanoTime} when the engine finished reading the request. */
+  public long receivedNanos() {
+    return receivedNanos;
+  }
+
+  /** Decoded query parameters; only the handler's thread reads them, so no locking. */
+  public Map<String, String> parameters() {
+    if (parameters == null) {
+      parameters = QueryString.parse(rawQuery);
+    }
+    return parameters;
+  }
+}
@@ -0,0 +1,131 @@
+package com.java.multithreading.http;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class HttpResponse {
+  private final int status;
+  private final String contentType;
+  private final byte[] body;
+  private final FileChannel file;
+  private final long filePosition;
+  private final long fileLength;
+  private final Map<String, String> headers = new LinkedHashMap<>();
+
+  public HttpResponse(int status, String contentType, byte[] body) {
+    this(status, contentType, body, null, 0, 0);
+  }
+
+  private HttpResponse(int status, String contentType, byte[] body, FileChannel file, long filePosition, long fileLength) {
+    this.status = status;
+    this.contentType = contentType;
+    this.body = body;
+    this.file = file;
+    this.filePosition = filePosition;
+    this.fileLength = fileLength;
+  }
+
+  public static HttpResponse text(int status, String body) {
+    return new HttpResponse(status, "text/plain; charset=utf-8", body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static HttpResponse json(String body) {
+    return new HttpResponse(200, "application/json", body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The first {@code size} bytes of the file, or the part the request's {@code Range} header asks
+   * for: 206 with a Content-Range for a single satisfiable range, 416 for one starting past the
+   * end, and the whole file for anything else, which a server may always answer with. The bytes
+   * are sent straight from the file, which the response does not close.
+   */
+  public static HttpResponse file(HttpRequest request, FileChannel file, long size, String contentType) {
+    String range = request.header("range");
+    long first = 0;
+    long last = size - 1;
+    if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+      String spec = range.substring(6).trim();
+      int dash = spec.indexOf('-');
+      try {
+        if (dash == 0) {
+          first = Math.max(0, size - Long.parseLong(spec.substring(1)));
+        } else if (dash > 0) {
+          first = Long.parseLong(spec.substring(0, dash));
+          if (dash < spec.length() - 1) {
+            last = Math.min(last, Long.parseLong(spec.substring(dash + 1)));
+          }
+        }
+      } catch (NumberFormatException e) {
+        first = 0;
+        last = size - 1;
+      }
+      if (first >= size) {
+        return text(416, "range outside 0-" + size).header("Content-Range", "bytes */" + size);
+      }
+      if (first > last) {
+        first = 0;
+        last = size - 1;
+      }
+    }
+    boolean partial = first > 0 || last < size - 1;
+    HttpResponse response = new HttpResponse(partial ? 206 : 200, contentType, new byte[0], file, first, last - first + 1)
+        .header("Accept-Ranges", "bytes");
+    return partial ? response.header("Content-Range", "bytes " + first + "-" + last + "/" + size) : response;
+  }
+
+  /** Adds a header besides Content-Type, Content-Length and Connection, which the engines set. */
+  public HttpResponse header(String name, String value) {
+    headers.put(name, value);
+    return this;
+  }
+
+  public int status() {
+    return status;
+  }
+
+  public String contentType() {
+    return contentType;
+  }
+
+  /** The body when it is in memory; empty for a {@link #file} response. */
+  public byte[] body() {
+    return body;
+  }
+
+  /** The file a {@link #file} response is sent from, or null. */
+  public FileChannel file() {
+    return file;
+  }
+
+  public long filePosition() {
+    return filePosition;
+  }
+
+  /** Bytes of the body, wherever it is. */
+  public long contentLength() {
+    return file != null ? fileLength : body.length;
+  }
+
+  public Map<String, String> headers() {
+    return headers;
+  }
+
+  static String reason(int status) {
+    switch (status) {
+      case 200: return "OK";
+      case 206: return "Partial Content";
+      case 400: return "Bad Request";
+      case 404: return "Not Found";
+      case 405: return "Method Not Allowed";
+      case 413: return "Payload Too Large";
+      case 416: return "Range Not Satisfiable";
+      case 431: return "Request Header Fields Too Large";
+      case 500: return "Internal Server Error";
+      case 501: return "Not Implemented";
+      case 503: return "Service Unavailable";
+      default: return "Status " + status;
+    }
+  }
+}
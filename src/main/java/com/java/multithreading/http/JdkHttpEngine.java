@@ -0,0 +1,105 @@
+package com.java.multithreading.http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Serves a {@link Router} on {@code com.sun.net.httpserver}, one context per route. The exchange
+ * only offers a stream, so a {@link HttpResponse#file} body is copied through a small buffer
+ * rather than sent with sendfile as {@link NioHttpServer} does.
+ */
+public final class JdkHttpEngine {
+
+  static {
+    // The JDK server writes headers and body separately; with Nagle on, a keep-alive client's
+    // delayed ACK holds every response back ~40ms. Read once, when the server classes load.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  private JdkHttpEngine() {
+  }
+
+  public static HttpServer start(InetSocketAddress address, Router router, Executor executor) throws IOException {
+    HttpServer server = HttpServer.create(address, 0);
+    for (Map.Entry<String, RequestHandler> route : router.routes().entrySet()) {
+      server.createContext(route.getKey(), adapt(router));
+    }
+    server.setExecutor(executor);
+    server.start();
+    return server;
+  }
+
+  private static HttpHandler adapt(Router router) {
+    return exchange -> {
+      try {
+        if (AdmissionControl.shedding() != null) {
+          // Answer on the submitting thread without waiting for a body from the client; the
+          // router sees the shed request so it is counted like any other.
+          send(exchange, router.dispatch(toRequest(exchange, new byte[0])));
+          return;
+        }
+        byte[] body = exchange.getRequestBody().readNBytes(HttpRequest.MAX_BODY + 1);
+        HttpResponse response = body.length > HttpRequest.MAX_BODY
+            ? HttpResponse.text(413, "request body over " + HttpRequest.MAX_BODY + " bytes")
+            : router.dispatch(toRequest(exchange, body));
+        send(exchange, response);
+      } finally {
+        exchange.close();
+      }
+    };
+  }
+
+  private static HttpRequest toRequest(HttpExchange exchange, byte[] body) {
+    Map<String, String> headers = new HashMap<>();
+    for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+      if (!header.getValue().isEmpty()) {
+        headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+      }
+    }
+    URI uri = exchange.getRequestURI();
+    return new HttpRequest(exchange.getRequestMethod(), uri.getRawPath(), uri.getRawQuery(), headers, body);
+  }
+
+  private static void send(HttpExchange exchange, HttpResponse response) throws IOException {
+    Headers headers = exchange.getResponseHeaders();
+    headers.set("Content-Type", response.contentType());
+    for (Map.Entry<String, String> header : response.headers().entrySet()) {
+      headers.set(header.getKey(), header.getValue());
+    }
+    long length = response.contentLength();
+    exchange.sendResponseHeaders(response.status(), length == 0 ? -1 : length);
+    if (length == 0) {
+      return;
+    }
+    OutputStream outputStream = exchange.getResponseBody();
+    FileChannel file = response.file();
+    if (file == null) {
+      outputStream.write(response.body());
+    } else {
+      WritableByteChannel out = Channels.newChannel(outputStream);
+      for (long position = response.filePosition(), end = position + length; position < end; ) {
+        long sent = file.transferTo(position, end - position, out);
+        if (sent == 0 && position >= file.size()) {
+          throw new IOException("file shrank while being sent");
+        }
+        position += sent;
+      }
+    }
+    outputStream.close();
+  }
+}
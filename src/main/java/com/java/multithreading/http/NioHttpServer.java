@@ -0,0 +1,400 @@
+package com.java.multithreading.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * HTTP/1.1 server on non-blocking channels: one {@link Selector} event loop per thread, each
+ * owning its connections, so thousands of idle keep-alive connections cost a registration each
+ * rather than a thread each.
+ *
+ * Loop 0 also accepts and hands new connections to the loops round robin. A loop reads until it
+ * has a complete request, stops reading that connection, and runs the handler on the executor;
+ * the response comes back to the loop as a task and is written from a direct buffer taken from
+ * the loop's own pool. A {@link HttpResponse#file} body follows its headers straight from the
+ * file with {@code transferTo}, which the kernel turns into sendfile, so it never passes through
+ * a buffer of ours. Once it is written the connection reads again, picking up any pipelined
+ * request already buffered. Requests with chunked bodies are answered 501.
+ */
+public final class NioHttpServer implements Closeable {
+  static final int BUFFER_SIZE = 64 << 10;
+  private static final int MAX_HEADER = 8 << 10;
+  private static final int POOLED_BUFFERS = 64;
+
+  private final ServerSocketChannel serverChannel;
+  private final EventLoop[] loops;
+  private final Router router;
+  private final Executor executor;
+  private int nextLoop;
+
+  /**
+   * @param executor runs the handlers; the loops only parse and write
+   */
+  public NioHttpServer(InetSocketAddress address, Router router, int loopCount, Executor executor) throws IOException {
+    this.router = router;
+    this.executor = executor;
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    serverChannel.bind(address, 1024);
+    serverChannel.configureBlocking(false);
+    this.loops = new EventLoop[loopCount];
+    for (int i = 0; i < loopCount; i++) {
+      loops[i] = new EventLoop(i);
+    }
+    serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+  }
+
+  public NioHttpServer start() {
+    for (EventLoop loop : loops) {
+      loop.thread.start();
+    }
+    return this;
+  }
+
+  public int port() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverChannel.close();
+    for (EventLoop loop : loops) {
+      loop.selector.close();
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = serverChannel.accept()) != null) {
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      SocketChannel accepted = channel;
+      EventLoop loop = loops[nextLoop++ % loops.length];
+      loop.execute(() -> loop.register(accepted));
+    }
+  }
+
+  private final class EventLoop implements Runnable {
+    final Selector selector;
+    final Thread thread;
+    final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+
+    EventLoop(int index) throws IOException {
+      this.selector = Selector.open();
+      // Not a daemon, like HttpServer's dispatcher: a started server keeps the JVM up until closed.
+      this.thread = new Thread(this, "nio-http-loop-" + index);
+    }
+
+    /** Runs the task on this loop's thread. */
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    void register(SocketChannel channel) {
+      try {
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(this, channel, key));
+      } catch (IOException e) {
+        closeQuietly(channel);
+      }
+    }
+
+    ByteBuffer acquire() {
+      ByteBuffer buffer = pool.poll();
+      return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void release(ByteBuffer buffer) {
+      if (pool.size() < POOLED_BUFFERS) {
+        buffer.clear();
+        pool.push(buffer);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (selector.isOpen()) {
+          selector.select();
+          for (Runnable task; (task = tasks.poll()) != null; ) {
+            task.run();
+          }
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+              continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+              connection.read();
+            } else if (key.isWritable()) {
+              connection.write();
+            }
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        // closed by close()
+      } catch (IOException e) {
+        System.err.println(thread.getName() + " stopped: " + e);
+      }
+    }
+  }
+
+  private final class Connection {
+    final EventLoop loop;
+    final SocketChannel channel;
+    final SelectionKey key;
+    ByteBuffer in = ByteBuffer.allocate(4096);
+    ByteBuffer[] out;
+    ByteBuffer pooled;
+    FileChannel file;
+    long filePosition;
+    long fileRemaining;
+    boolean busy;
+    boolean keepAlive;
+
+    Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+      this.loop = loop;
+      this.channel = channel;
+      this.key = key;
+    }
+
+    void read() {
+      try {
+        if (!in.hasRemaining()) {
+          in = grow(in);
+        }
+        if (channel.read(in) < 0) {
+          close();
+          return;
+        }
+        parse();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    /** Starts the next request in {@code in} if it is complete and none is in flight. */
+    private void parse() {
+      if (busy) {
+        return;
+      }
+      in.flip();
+      int headerEnd = headerEnd(in);
+      if (headerEnd < 0) {
+        boolean tooLarge = in.remaining() > MAX_HEADER;
+        in.compact();
+        if (tooLarge) {
+          reject(431, "request headers over " + MAX_HEADER + " bytes");
+        }
+        return;
+      }
+      byte[] head = new byte[headerEnd - in.position()];
+      in.get(head);
+      String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+      String[] requestLine = lines[0].split(" ");
+      Map<String, String> headers = new HashMap<>();
+      for (int i = 1; i < lines.length; i++) {
+        int colon = lines[i].indexOf(':');
+        if (colon > 0) {
+          headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+        }
+      }
+      if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+        in.compact();
+        reject(400, "malformed request line");
+        return;
+      }
+      if (headers.containsKey("transfer-encoding")) {
+        in.compact();
+        reject(501, "chunked request bodies are not supported");
+        return;
+      }
+      long contentLength;
+      try {
+        contentLength = Long.parseLong(headers.getOrDefault("content-length", "0"));
+      } catch (NumberFormatException e) {
+        contentLength = -1;
+      }
+      if (contentLength < 0 || contentLength > HttpRequest.MAX_BODY) {
+        in.compact();
+        reject(contentLength < 0 ? 400 : 413, "bad content length");
+        return;
+      }
+      if (in.remaining() < 4 + contentLength) {
+        in.position(in.position() - head.length);
+        in.compact();
+        return;
+      }
+      in.position(in.position() + 4);
+      byte[] body = new byte[(int) contentLength];
+      in.get(body);
+      in.compact();
+
+      String target = requestLine[1];
+      int question = target.indexOf('?');
+      HttpRequest request = new HttpRequest(requestLine[0], question < 0 ? target : target.substring(0, question),
+          question < 0 ? null : target.substring(question + 1), headers, body);
+      String connection = headers.getOrDefault("connection", "");
+      keepAlive = requestLine[2].equals("HTTP/1.1") ? !connection.equalsIgnoreCase("close")
+          : connection.equalsIgnoreCase("keep-alive");
+      busy = true;
+      key.interestOps(0);
+      try {
+        executor.execute(() -> {
+          HttpResponse response;
+          try {
+            response = router.dispatch(request);
+          } catch (Throwable e) {
+            // The router turns exceptions into 500s, but an Error must not leave the connection busy either.
+            loop.execute(() -> reject(500, String.valueOf(e)));
+            throw e;
+          }
+          loop.execute(() -> send(response));
+        });
+      } catch (RejectedExecutionException e) {
+        send(HttpResponse.text(503, "server is shutting down"));
+      }
+    }
+
+    private void reject(int status, String message) {
+      busy = true;
+      keepAlive = false;
+      key.interestOps(0);
+      send(HttpResponse.text(status, message));
+    }
+
+    /** Encodes the response into a pooled direct buffer, or gathers it with the body if too big. */
+    private void send(HttpResponse response) {
+      if (!key.isValid()) {
+        return;
+      }
+      StringBuilder head = new StringBuilder(128)
+          .append("HTTP/1.1 ").append(response.status()).append(' ').append(HttpResponse.reason(response.status()))
+          .append("\r\nContent-Type: ").append(response.contentType())
+          .append("\r\nContent-Length: ").append(response.contentLength())
+          .append("\r\nConnection: ").append(keepAlive ? "keep-alive" : "close");
+      for (Map.Entry<String, String> header : response.headers().entrySet()) {
+        head.append("\r\n").append(header.getKey()).append(": ").append(header.getValue());
+      }
+      byte[] headBytes = head.append("\r\n\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+      byte[] body = response.body();
+      pooled = loop.acquire();
+      if (headBytes.length + body.length <= pooled.capacity()) {
+        pooled.put(headBytes).put(body).flip();
+        out = new ByteBuffer[] {pooled};
+      } else if (headBytes.length <= pooled.capacity()) {
+        pooled.put(headBytes).flip();
+        out = new ByteBuffer[] {pooled, ByteBuffer.wrap(body)};
+      } else {
+        loop.release(pooled);
+        pooled = null;
+        out = new ByteBuffer[] {ByteBuffer.wrap(headBytes), ByteBuffer.wrap(body)};
+      }
+      file = response.file();
+      filePosition = response.filePosition();
+      fileRemaining = file != null ? response.contentLength() : 0;
+      write();
+    }
+
+    void write() {
+      try {
+        if (out[out.length - 1].hasRemaining()) {
+          channel.write(out);
+        }
+        if (!out[out.length - 1].hasRemaining() && fileRemaining > 0) {
+          long sent = file.transferTo(filePosition, fileRemaining, channel);
+          if (sent == 0 && filePosition >= file.size()) {
+            // The file shrank under us; the promised length can no longer be met.
+            close();
+            return;
+          }
+          filePosition += sent;
+          fileRemaining -= sent;
+        }
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      if (out[out.length - 1].hasRemaining() || fileRemaining > 0) {
+        key.interestOps(SelectionKey.OP_WRITE);
+        return;
+      }
+      file = null;
+      if (pooled != null) {
+        loop.release(pooled);
+        pooled = null;
+      }
+      out = null;
+      busy = false;
+      if (!keepAlive) {
+        close();
+        return;
+      }
+      key.interestOps(SelectionKey.OP_READ);
+      parse();
+    }
+
+    void close() {
+      if (pooled != null) {
+        loop.release(pooled);
+        pooled = null;
+      }
+      key.cancel();
+      closeQuietly(channel);
+    }
+  }
+
+  /** Index just past the request headers, at the blank line, or -1 if they are not all here. */
+  private static int headerEnd(ByteBuffer buffer) {
+    for (int i = buffer.position(); i + 3 < buffer.limit(); i++) {
+      if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static ByteBuffer grow(ByteBuffer buffer) {
+    ByteBuffer grown = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_HEADER + HttpRequest.MAX_BODY + 4));
+    if (grown.capacity() == buffer.capacity()) {
+      return buffer;
+    }
+    buffer.flip();
+    return grown.put(buffer);
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+      // nothing left to do for this connection
+    }
+  }
+}
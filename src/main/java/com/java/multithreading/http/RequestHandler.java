@@ -0,0 +1,7 @@
+package com.java.multithreading.http;
+
+/** Serves one route for either engine; may block, engines run it off their I/O threads. */
+@FunctionalInterface
+public interface RequestHandler {
+  HttpResponse handle(HttpRequest request) throws Exception;
+}
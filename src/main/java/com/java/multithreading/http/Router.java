@@ -0,0 +1,74 @@
+package com.java.multithreading.http;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps a request path to the handler with the longest matching prefix, like HttpServer contexts,
+ * and records every dispatched request in its {@link ServerMetrics} under the matched prefix.
+ */
+public final class Router {
+  private static final String UNMATCHED = "unmatched";
+
+  private final TreeMap<String, RequestHandler> routes = new TreeMap<>();
+  private final ServerMetrics metrics = new ServerMetrics();
+
+  public Router add(String prefix, RequestHandler handler) {
+    routes.put(prefix, handler);
+    return this;
+  }
+
+  public Map<String, RequestHandler> routes() {
+    return routes;
+  }
+
+  public ServerMetrics metrics() {
+    return metrics;
+  }
+
+  /** Returns the handler for the path, or null if no route matches. */
+  public RequestHandler route(String path) {
+    Map.Entry<String, RequestHandler> entry = match(path);
+    return entry == null ? null : entry.getValue();
+  }
+
+  private Map.Entry<String, RequestHandler> match(String path) {
+    for (Map.Entry<String, RequestHandler> entry = routes.floorEntry(path); entry != null;
+        entry = routes.lowerEntry(entry.getKey())) {
+      if (path.startsWith(entry.getKey())) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Runs the routed handler, turning a missing route into 404 and a failure into 500. A request
+   * shed by {@link AdmissionControl} gets its 503 without reaching the handler.
+   */
+  public HttpResponse dispatch(HttpRequest request) {
+    long start = System.nanoTime();
+    metrics.started();
+    Map.Entry<String, RequestHandler> entry = match(request.path());
+    HttpResponse response = handle(entry, request);
+    long end = System.nanoTime();
+    metrics.finished(entry == null ? UNMATCHED : entry.getKey(), response.status(),
+        end - request.receivedNanos(), end - start);
+    return response;
+  }
+
+  private static HttpResponse handle(Map.Entry<String, RequestHandler> entry, HttpRequest request) {
+    AdmissionControl shedding = AdmissionControl.shedding();
+    if (shedding != null) {
+      return shedding.overloaded();
+    }
+    if (entry == null) {
+      return HttpResponse.text(404, "no route for " + request.path());
+    }
+    try {
+      return entry.getValue().handle(request);
+    } catch (Exception e) {
+      return HttpResponse.text(500, String.valueOf(e));
+    }
+  }
+}
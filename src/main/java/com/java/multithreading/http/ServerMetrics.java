@@ -0,0 +1,140 @@
+package com.java.multithreading.http;
+
+import com.java.multithreading.cache.LatencyHistogram;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Request metrics recorded by {@link Router#dispatch}, plus gauges and counters other parts of the
+ * server register, rendered in the Prometheus text format for {@code /metrics}.
+ *
+ * Recording a request is a few atomic adds into the route's {@link LatencyHistogram} and
+ * counters; the histogram is only folded into Prometheus buckets when metrics are scraped.
+ */
+public final class ServerMetrics {
+  private static final double[] BUCKET_SECONDS = {
+      0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+  /**
+   * The bounds actually exported: each of {@link #BUCKET_SECONDS} moved down to the nearest
+   * {@link LatencyHistogram} bucket edge, at most ~6% lower, so no bucket is split and the counts
+   * are exact. The labels are the same on every scrape.
+   */
+  private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+  private static final String[] BUCKET_LABELS = new String[BUCKET_SECONDS.length];
+
+  static {
+    for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+      BUCKET_NANOS[i] = LatencyHistogram.bucketEdgeAtOrBelow(Math.round(BUCKET_SECONDS[i] * 1e9));
+      BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_NANOS[i], 9).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  private final ConcurrentHashMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+  private final LongAdder inFlight = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+  private final CopyOnWriteArrayList<Metric> metrics = new CopyOnWriteArrayList<>();
+
+  void started() {
+    inFlight.increment();
+  }
+
+  /**
+   * @param latencyNanos from when the engine had the whole request to the response being ready
+   * @param busyNanos    time spent running the handler
+   */
+  void finished(String route, int status, long latencyNanos, long busyNanos) {
+    inFlight.decrement();
+    this.busyNanos.add(busyNanos);
+    RouteMetrics metrics = routes.computeIfAbsent(route, name -> new RouteMetrics());
+    metrics.latency.record(latencyNanos);
+    metrics.statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+  }
+
+  public void gauge(String name, String help, DoubleSupplier value) {
+    metrics.add(new Metric(name, help, "gauge", value));
+  }
+
+  /** Registers a monotonically increasing value; the name should end in {@code _total}. */
+  public void counter(String name, String help, DoubleSupplier value) {
+    metrics.add(new Metric(name, help, "counter", value));
+  }
+
+  public String render() {
+    StringBuilder out = new StringBuilder(4096);
+    Map<String, RouteMetrics> sorted = new TreeMap<>(routes);
+
+    header(out, "http_requests_total", "Requests answered, by route and status.", "counter");
+    for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+      for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(route.getValue().statuses).entrySet()) {
+        out.append("http_requests_total{route=\"").append(escape(route.getKey())).append("\",status=\"")
+            .append(status.getKey()).append("\"} ").append(status.getValue().sum()).append('\n');
+      }
+    }
+
+    header(out, "http_request_duration_seconds", "Time from a complete request to its response, by route.", "histogram");
+    for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+      LatencyHistogram.Snapshot snapshot = route.getValue().latency.snapshot();
+      String label = "route=\"" + escape(route.getKey()) + "\"";
+      for (int i = 0; i < BUCKET_NANOS.length; i++) {
+        out.append("http_request_duration_seconds_bucket{").append(label).append(",le=\"").append(BUCKET_LABELS[i])
+            .append("\"} ").append(snapshot.countAtOrBelow(BUCKET_NANOS[i])).append('\n');
+      }
+      out.append("http_request_duration_seconds_bucket{").append(label).append(",le=\"+Inf\"} ")
+          .append(snapshot.count()).append('\n');
+      out.append("http_request_duration_seconds_sum{").append(label).append("} ").append(snapshot.sum() / 1e9).append('\n');
+      out.append("http_request_duration_seconds_count{").append(label).append("} ").append(snapshot.count()).append('\n');
+    }
+
+    header(out, "http_requests_in_flight", "Requests being handled right now.", "gauge");
+    out.append("http_requests_in_flight ").append(inFlight.sum()).append('\n');
+    header(out, "http_handler_busy_seconds_total",
+        "Handler thread time; its rate divided by the thread count is pool utilization.", "counter");
+    out.append("http_handler_busy_seconds_total ").append(busyNanos.sum() / 1e9).append('\n');
+
+    for (Metric metric : metrics) {
+      header(out, metric.name, metric.help, metric.type);
+      double value = metric.value.getAsDouble();
+      out.append(metric.name).append(' ');
+      if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+        out.append((long) value);
+      } else {
+        out.append(value);
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String help, String type) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static String escape(String label) {
+    return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static final class RouteMetrics {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+  }
+
+  private static final class Metric {
+    final String name;
+    final String help;
+    final String type;
+    final DoubleSupplier value;
+
+    Metric(String name, String help, String type, DoubleSupplier value) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+      this.value = value;
+    }
+  }
+}
@@ -3,56 +3,105 @@ package com.java.multithreading.imageprocessing;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.nio.Buffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.imageio.ImageIO;
 
 public class SequetialProcessing {
 
   public static String imagePath = "/Users/sandishkumarhn/Downloads/pic2.jpg";
 
-  public static void main(String[] args) throws IOException, InterruptedException {
-    BufferedImage originalImage = ImageIO.read(new File(imagePath));
+  /** Smallest tile worth a task of its own, in pixels. */
+  public static int MIN_TILE_PIXELS = 1 << 14;
+  /** Tiles per pool thread to aim for, so threads that finish early have tiles left to steal. */
+  public static int TILES_PER_THREAD = 16;
+
+  public static void main(String[] args) throws IOException {
+    BufferedImage originalImage = ImageIO.read(new File(args.length > 0 ? args[0] : imagePath));
     BufferedImage resultImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_INT_RGB);
 
-    recolorMultiThreade(originalImage, resultImage, 4);
+    long start = System.nanoTime();
+    recolroSingleThreaded(originalImage, resultImage);
+    System.out.println("single threaded: " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    start = System.nanoTime();
+    recolorMultiThreade(originalImage, resultImage, numThreads);
+    System.out.println(numThreads + " threads: " + (System.nanoTime() - start) / 1_000_000 + " ms");
 
-    File outFile = new File("/Users/sandishkumarhn/Downloads/pic2-modi2.jpg");
+    File outFile = new File(args.length > 1 ? args[1] : "/Users/sandishkumarhn/Downloads/pic2-modi2.jpg");
     ImageIO.write(resultImage, "jpg", outFile);
   }
 
-  public static void recolorMultiThreade(BufferedImage originalImage, BufferedImage resultImage, int numThreads)
-      throws InterruptedException {
-    List<Thread> threads = new ArrayList<>();
-
-    int witdh = originalImage.getWidth();
-    int height = originalImage.getHeight() - numThreads;
-
-    for(int i = 0; i < numThreads; i++) {
-      int threadMultiplier = i;
-
-      Thread thread = new Thread(new Runnable() {
-        @Override
-        public void run() {
-          int leftCorner = 0;
-          int rightCorner = height * threadMultiplier;
+  public static void recolorMultiThreade(BufferedImage originalImage, BufferedImage resultImage, int numThreads) {
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      recolorParallel(originalImage, resultImage, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
 
-          reColorImage(originalImage, resultImage,  leftCorner, rightCorner, witdh, height);
-        }
-      });
+  /**
+   * Recolors the image on the pool by splitting it in halves along its longer side until the
+   * pieces are tiles of about pixels / (parallelism * {@link #TILES_PER_THREAD}), but at least
+   * {@link #MIN_TILE_PIXELS}. The halves always add up to the whole, so every pixel is recolored
+   * exactly once; idle threads steal the larger pieces still waiting to be split.
+   */
+  public static void recolorParallel(BufferedImage originalImage, BufferedImage resultImage, ForkJoinPool pool) {
+    long pixels = (long) originalImage.getWidth() * originalImage.getHeight();
+    long tilePixels = Math.max(MIN_TILE_PIXELS, pixels / ((long) pool.getParallelism() * TILES_PER_THREAD));
+    pool.invoke(new RecolorTask(originalImage, resultImage, 0, 0, originalImage.getWidth(), originalImage.getHeight(),
+        tilePixels));
+  }
 
-      threads.add(thread);
+  private static class RecolorTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final BufferedImage originalImage;
+    private final BufferedImage resultImage;
+    private final int leftCorner;
+    private final int topCorner;
+    private final int width;
+    private final int height;
+    private final long tilePixels;
+
+    RecolorTask(BufferedImage originalImage, BufferedImage resultImage, int leftCorner, int topCorner, int width,
+        int height, long tilePixels) {
+      this.originalImage = originalImage;
+      this.resultImage = resultImage;
+      this.leftCorner = leftCorner;
+      this.topCorner = topCorner;
+      this.width = width;
+      this.height = height;
+      this.tilePixels = tilePixels;
     }
 
-    for(Thread  thread: threads) {
-      thread.start();
-    }
-    for(Thread  thread: threads) {
-      thread.join();
+    @Override
+    protected void compute() {
+      if ((long) width * height <= tilePixels) {
+        reColorTile(originalImage, resultImage, leftCorner, topCorner, width, height);
+      } else if (width >= height) {
+        int half = width / 2;
+        invokeAll(new RecolorTask(originalImage, resultImage, leftCorner, topCorner, half, height, tilePixels),
+            new RecolorTask(originalImage, resultImage, leftCorner + half, topCorner, width - half, height, tilePixels));
+      } else {
+        int half = height / 2;
+        invokeAll(new RecolorTask(originalImage, resultImage, leftCorner, topCorner, width, half, tilePixels),
+            new RecolorTask(originalImage, resultImage, leftCorner, topCorner + half, width, height - half, tilePixels));
+      }
     }
+  }
 
+  /** Recolors a tile with one bulk read and one bulk write instead of a call per pixel. */
+  public static void reColorTile(BufferedImage originalImage, BufferedImage resultImage, int leftCorner, int topCorner,
+      int width, int height) {
+    int[] pixels = originalImage.getRGB(leftCorner, topCorner, width, height, null, 0, width);
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = reColor(pixels[i]);
+    }
+    resultImage.setRGB(leftCorner, topCorner, width, height, pixels, 0, width);
   }
+
   public static void recolroSingleThreaded(BufferedImage originalImage, BufferedImage resultImage) {
     reColorImage(originalImage, resultImage, 0, 0, originalImage.getWidth(), originalImage.getHeight());
 
@@ -60,15 +109,16 @@ public class SequetialProcessing {
   public static void reColorImage(BufferedImage originalImage, BufferedImage resultImage, int leftCorner, int topCorner,
       int width, int height) {
     for(int x = leftCorner; x < leftCorner + width && x < originalImage.getWidth(); x++) {
-      for(int y = topCorner; y < topCorner + height && x < originalImage.getHeight(); y++) {
+      for(int y = topCorner; y < topCorner + height && y < originalImage.getHeight(); y++) {
         reColorPixels(originalImage, resultImage, x, y);
       }
     }
   }
   public static void reColorPixels(BufferedImage originalImage, BufferedImage resultImage, int x, int y) {
+    setRGB(resultImage, x, y, reColor(originalImage.getRGB(x, y)));
+  }
 
-    int rgb = originalImage.getRGB(x, y);
-
+  public static int reColor(int rgb) {
     int red = getRed(rgb);
     int green = getGreen(rgb);
     int blue = getBlue(rgb);
@@ -88,9 +138,7 @@ public class SequetialProcessing {
       newBlue = blue;
     }
 
-    int newRGB = createRGBtFromColors(newRed, newGreen, newBlue);
-
-    setRGB(resultImage, x, y, newRGB);
+    return createRGBtFromColors(newRed, newGreen, newBlue);
   }
 
   public static void setRGB(BufferedImage image, int x, int y, int rgb) {
@@ -105,19 +153,19 @@ public class SequetialProcessing {
 
 
     rgb |= blue;
-    rgb |= blue << 8;
-    rgb |= blue << 16;
+    rgb |= gree << 8;
+    rgb |= red << 16;
 
     rgb |= 0xFF000000;
 
     return rgb;
   }
   public static int getRed(int rgb) {
-    return rgb & 0x00FF0000 >> 16;
+    return (rgb & 0x00FF0000) >> 16;
   }
 
   public static int getGreen(int rgb) {
-    return rgb & 0x0000FF00 >> 8;
+    return (rgb & 0x0000FF00) >> 8;
   }
 
   public static int getBlue(int rgb) {
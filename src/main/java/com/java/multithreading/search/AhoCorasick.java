@@ -0,0 +1,201 @@
+package com.java.multithreading.search;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts many words in one pass over a {@link MappedCorpus}. The words are compiled into an
+ * Aho-Corasick automaton over UTF-8 bytes whose failure links are folded into a complete
+ * transition table, so the scan does one table lookup per byte however many words there are.
+ *
+ * Bytes that appear in no word share one column of the table, which keeps it at
+ * (states x distinct pattern bytes) ints. The scan only counts visits per state; the counts
+ * are pushed down the failure links once at the end, so matches cost nothing extra per byte.
+ */
+public final class AhoCorasick {
+  /** Limit on the summed UTF-8 length of the words, which bounds the table at a few MB. */
+  public static final int MAX_TOTAL_BYTES = 1 << 16;
+
+  private final int[] classOf = new int[256];
+  private final int width;
+  private final int[] transitions;
+  private final int[] fail;
+  private final int[] depth;
+  private final int[] order;
+  private final int[] terminal;
+  private final int maxLength;
+  private final boolean allTokens;
+
+  public AhoCorasick(List<String> words) {
+    byte[][] patterns = new byte[words.size()][];
+    int totalBytes = 0;
+    boolean tokens = true;
+    for (int i = 0; i < patterns.length; i++) {
+      tokens &= TokenIndex.isToken(words.get(i));
+      patterns[i] = words.get(i).getBytes(StandardCharsets.UTF_8);
+      if (patterns[i].length == 0) {
+        throw new IllegalArgumentException("empty word");
+      }
+      totalBytes += patterns[i].length;
+    }
+    if (totalBytes > MAX_TOTAL_BYTES) {
+      throw new IllegalArgumentException("words exceed " + MAX_TOTAL_BYTES + " bytes in total");
+    }
+
+    int classes = 1;
+    for (byte[] pattern : patterns) {
+      for (byte b : pattern) {
+        if (classOf[b & 0xff] == 0) {
+          classOf[b & 0xff] = classes++;
+        }
+      }
+    }
+    this.width = classes;
+
+    int capacity = totalBytes + 1;
+    int[] table = new int[capacity * width];
+    Arrays.fill(table, -1);
+    int[] depths = new int[capacity];
+    int states = 1;
+    int longest = 0;
+    this.terminal = new int[patterns.length];
+    for (int i = 0; i < patterns.length; i++) {
+      int state = 0;
+      for (byte b : patterns[i]) {
+        int slot = state * width + classOf[b & 0xff];
+        if (table[slot] < 0) {
+          depths[states] = depths[state] + 1;
+          table[slot] = states++;
+        }
+        state = table[slot];
+      }
+      terminal[i] = state;
+      longest = Math.max(longest, patterns[i].length);
+    }
+
+    int[] failures = new int[states];
+    int[] bfs = new int[states];
+    int head = 0;
+    int tail = 0;
+    bfs[tail++] = 0;
+    while (head < tail) {
+      int state = bfs[head++];
+      for (int c = 0; c < width; c++) {
+        int slot = state * width + c;
+        int child = table[slot];
+        int fallback = state == 0 ? 0 : table[failures[state] * width + c];
+        if (child < 0 || c == 0) {
+          table[slot] = fallback;
+        } else {
+          failures[child] = fallback;
+          bfs[tail++] = child;
+        }
+      }
+    }
+
+    this.transitions = Arrays.copyOf(table, states * width);
+    this.fail = failures;
+    this.depth = Arrays.copyOf(depths, states);
+    this.order = bfs;
+    this.maxLength = longest;
+    this.allTokens = tokens;
+  }
+
+  /**
+   * Occurrences of each word, in the order given. Overlapping matches all count; with
+   * {@code wholeToken} a match counts only if it is an entire token of the corpus, and every word
+   * must be a token itself or IllegalArgumentException is thrown. Large corpora are scanned in
+   * parallel chunks, each owning the matches that end in it.
+   */
+  public long[] count(MappedCorpus corpus, boolean wholeToken) {
+    if (wholeToken && !allTokens) {
+      throw new IllegalArgumentException("whole-token counts need every word to be a token");
+    }
+    long[] hits = ParallelScan.run(0, corpus.size(), (from, to) -> scan(corpus, from, to, wholeToken), (left, right) -> {
+      for (int i = 0; i < left.length; i++) {
+        left[i] += right[i];
+      }
+      return left;
+    });
+    return counts(hits, wholeToken);
+  }
+
+  /**
+   * Visits per state for the matches ending in {@code [from, to)}. The scan starts from the root
+   * {@code maxLength} bytes early so the state at {@code from} is the same as in a full scan.
+   */
+  long[] scan(MappedCorpus corpus, long from, long to, boolean wholeToken) {
+    long[] hits = new long[depth.length];
+    if (from >= to) {
+      return hits;
+    }
+    int state = 0;
+    int run = 0;
+    long warmup = Math.max(0, from - maxLength);
+    if (wholeToken && warmup > 0 && TokenIndex.isTokenByte(corpus.byteAt(warmup - 1))) {
+      run = Integer.MAX_VALUE / 2;
+    }
+    for (long position = warmup; position < from; position++) {
+      byte b = corpus.byteAt(position);
+      state = transitions[state * width + classOf[b & 0xff]];
+      run = TokenIndex.isTokenByte(b) ? run + 1 : 0;
+    }
+    if (!TokenIndex.isTokenByte(corpus.byteAt(from))) {
+      // A token ending at from - 1 belongs to the range before this one.
+      run = 0;
+    }
+
+    for (long start = from; start < to; ) {
+      int segment = (int) (start >>> MappedCorpus.SEGMENT_SHIFT);
+      long segmentStart = (long) segment << MappedCorpus.SEGMENT_SHIFT;
+      ByteBuffer buffer = corpus.segment(segment);
+      int end = (int) (Math.min(to, segmentStart + MappedCorpus.SEGMENT_SIZE) - segmentStart);
+      int i = (int) (start - segmentStart);
+      if (wholeToken) {
+        for (; i < end; i++) {
+          byte b = buffer.get(i);
+          if (TokenIndex.isTokenByte(b)) {
+            run++;
+          } else {
+            if (run > 0 && depth[state] == run) {
+              hits[state]++;
+            }
+            run = 0;
+          }
+          state = transitions[state * width + classOf[b & 0xff]];
+        }
+      } else {
+        for (; i < end; i++) {
+          state = transitions[state * width + classOf[buffer.get(i) & 0xff]];
+          hits[state]++;
+        }
+      }
+      start = segmentStart + end;
+    }
+    if (wholeToken && run > 0 && depth[state] == run
+        && (to == corpus.size() || !TokenIndex.isTokenByte(corpus.byteAt(to)))) {
+      hits[state]++;
+    }
+    return hits;
+  }
+
+  /**
+   * Turns summed {@link #scan} visits into per-word counts. Substring hits are pushed from each
+   * state to its failure target, deepest states first, because a visit there also ends every
+   * shorter word on its failure chain.
+   */
+  long[] counts(long[] hits, boolean wholeToken) {
+    if (!wholeToken) {
+      for (int i = order.length - 1; i > 0; i--) {
+        hits[fail[order[i]]] += hits[order[i]];
+      }
+    }
+    long[] counts = new long[terminal.length];
+    for (int i = 0; i < terminal.length; i++) {
+      counts[i] = hits[terminal[i]];
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,276 @@
+package com.java.multithreading.search;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Word counting over a {@link MappedCorpus}, shared by the server's handlers. Token queries are
+ * answered from the {@link TokenIndex} once it is built in the background and by a whole-token
+ * scan until then. Substring and prefix queries, and words that are not a single token, use the
+ * {@link FmIndex} when one is configured and ready, and scan otherwise.
+ *
+ * With {@link #tail} the file is polled for appended bytes. Each append is mapped as a new
+ * corpus snapshot and only its tokens are added to the index; queries keep running against
+ * whichever snapshot they started with. The full-text index is not updated in place: bytes past
+ * its end are scanned, and it is rebuilt in the background once they are a quarter of its size.
+ */
+public final class CorpusSearch {
+  public enum Mode {
+    TOKEN, SUBSTRING, PREFIX;
+
+    /** Parses {@code token}, {@code substring} or {@code prefix}; null means {@link #TOKEN}. */
+    public static Mode parse(String mode) {
+      if (mode == null || mode.equals("token")) {
+        return TOKEN;
+      }
+      if (mode.equals("substring")) {
+        return SUBSTRING;
+      }
+      if (mode.equals("prefix")) {
+        return PREFIX;
+      }
+      throw new IllegalArgumentException("unknown mode: " + mode);
+    }
+  }
+
+  /** Unindexed bytes a full-text index must trail by, at least, before it is rebuilt. */
+  private static final long MIN_REBUILD_LAG = 64L << 20;
+
+  private volatile MappedCorpus corpus;
+  private volatile long version;
+  private final CompletableFuture<TokenIndex> index;
+  private final Path fullTextFile;
+  private volatile CompletableFuture<FmIndex> fullText;
+  private CompletableFuture<FmIndex> rebuild;
+  private final LongAdder bytesScanned = new LongAdder();
+  private ScheduledExecutorService tailer;
+  private boolean closed;
+
+  public CorpusSearch(MappedCorpus corpus) {
+    this(corpus, null);
+  }
+
+  /**
+   * @param fullTextFile where the {@link FmIndex} is kept; an index of this corpus found there is
+   *                     opened, otherwise one is built in the background and saved. Null
+   *                     leaves substring and prefix queries to scans.
+   */
+  public CorpusSearch(MappedCorpus corpus, Path fullTextFile) {
+    this.corpus = corpus;
+    this.fullTextFile = fullTextFile;
+    this.index = CompletableFuture.supplyAsync(() -> TokenIndex.build(corpus));
+    this.fullText = fullTextFile == null ? CompletableFuture.completedFuture(null)
+        : CompletableFuture.supplyAsync(() -> {
+          try {
+            FmIndex opened = FmIndex.open(fullTextFile, corpus);
+            return opened != null ? opened : FmIndex.build(corpus, fullTextFile);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /** The latest snapshot of the corpus. */
+  public MappedCorpus corpus() {
+    return corpus;
+  }
+
+  /** Changes whenever the counts may have; results cached under one version are stale under another. */
+  public long version() {
+    return version;
+  }
+
+  public CompletableFuture<TokenIndex> index() {
+    return index;
+  }
+
+  /** Completes with null when no full-text index is configured. */
+  public CompletableFuture<FmIndex> fullText() {
+    return fullText;
+  }
+
+  /** Completes, failed or not, once the full-text index and any rebuild of it are done being built. */
+  public synchronized CompletableFuture<Void> indexing() {
+    CompletableFuture<FmIndex> building = rebuild != null ? rebuild : fullText;
+    return CompletableFuture.allOf(fullText, building).handle((done, e) -> null);
+  }
+
+  /** Corpus bytes read by scans so far; index lookups read none. */
+  public long bytesScanned() {
+    return bytesScanned.sum();
+  }
+
+  /** Polls the file for appended bytes every period on a daemon thread, until {@link #close}. */
+  public synchronized void tail(long period, TimeUnit unit) {
+    if (tailer != null) {
+      throw new IllegalStateException("already tailing");
+    }
+    tailer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "corpus-tail");
+      thread.setDaemon(true);
+      return thread;
+    });
+    tailer.scheduleWithFixedDelay(() -> {
+      try {
+        refresh();
+      } catch (IOException | RuntimeException e) {
+        System.err.println("tailing stopped: " + e);
+        throw new IllegalStateException(e);
+      }
+    }, period, period, unit);
+  }
+
+  /** Stops tailing; {@link #refresh} does nothing afterwards, so no index build is started either. */
+  public synchronized void close() {
+    closed = true;
+    if (tailer != null) {
+      tailer.shutdownNow();
+    }
+  }
+
+  /**
+   * Maps bytes appended since the last call and adds their tokens to the index; returns whether
+   * anything changed. Also catches the index up with appends made while it was being built.
+   */
+  public synchronized boolean refresh() throws IOException {
+    if (closed) {
+      return false;
+    }
+    MappedCorpus grown = corpus.refresh();
+    boolean changed = grown != corpus;
+    corpus = grown;
+    TokenIndex built = index.getNow(null);
+    if (built != null && built.indexedTo() < grown.size()) {
+      built.append(grown);
+      changed = true;
+    }
+    if (changed) {
+      version++;
+    }
+    FmIndex fm = fullTextNow();
+    if (fm != null && rebuild == null && grown.size() - fm.corpusSize() > Math.max(MIN_REBUILD_LAG, fm.corpusSize() / 4)
+        && grown.size() <= SuffixArray.MAX_SIZE) {
+      CompletableFuture<FmIndex> building = CompletableFuture.supplyAsync(() -> {
+        try {
+          return FmIndex.build(grown, fullTextFile);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      rebuild = building;
+      building.whenComplete((rebuilt, e) -> {
+        synchronized (this) {
+          if (e == null) {
+            fullText = building;
+            version++;
+          } else {
+            System.err.println("full-text index rebuild failed: " + e);
+          }
+          rebuild = null;
+        }
+      });
+    }
+    return changed;
+  }
+
+  public long count(String word, Mode mode) {
+    byte[] pattern = pattern(word);
+    MappedCorpus snapshot = corpus;
+    if (mode == Mode.TOKEN && TokenIndex.isToken(word)) {
+      TokenIndex built = index.getNow(null);
+      if (built != null) {
+        return built.count(word);
+      }
+      bytesScanned.add(snapshot.size());
+      return snapshot.count(pattern, true);
+    }
+    FmIndex fm = fullTextNow();
+    if (fm != null) {
+      long count = mode == Mode.PREFIX ? fm.countPrefix(pattern) : fm.count(pattern);
+      // Matches ending past the indexed bytes are not in the index.
+      long from = Math.max(0, fm.corpusSize() - pattern.length + 1);
+      if (snapshot.size() > fm.corpusSize()) {
+        bytesScanned.add(snapshot.size() - from);
+        count += snapshot.countFrom(pattern, mode == Mode.PREFIX, false, from);
+      }
+      return count;
+    }
+    bytesScanned.add(snapshot.size());
+    return snapshot.count(pattern, mode == Mode.PREFIX, false);
+  }
+
+  /**
+   * Counts every word with at most one pass over the corpus per kind of match: token words are
+   * looked up in the index when it is ready, the rest go through one {@link AhoCorasick} scan
+   * for whole tokens and one for substrings. With an {@link FmIndex} ready no word needs a scan
+   * but token words waiting for the token index. Prefix words without one are scanned one by one.
+   * The result keeps the order of the words.
+   */
+  public Map<String, Long> countAll(List<String> words, Mode mode) {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    List<String> tokens = new ArrayList<>();
+    List<String> substrings = new ArrayList<>();
+    MappedCorpus snapshot = corpus;
+    TokenIndex built = index.getNow(null);
+    FmIndex fm = fullTextNow();
+    for (String word : words) {
+      if (counts.containsKey(word)) {
+        continue;
+      }
+      if (word.isEmpty()) {
+        throw new IllegalArgumentException("empty word");
+      }
+      counts.put(word, 0L);
+      if (mode == Mode.TOKEN && TokenIndex.isToken(word)) {
+        if (built != null) {
+          counts.put(word, built.count(word));
+        } else {
+          tokens.add(word);
+        }
+      } else if (fm != null || mode == Mode.PREFIX) {
+        counts.put(word, count(word, mode));
+      } else {
+        substrings.add(word);
+      }
+    }
+    scanInto(snapshot, counts, tokens, true);
+    scanInto(snapshot, counts, substrings, false);
+    return counts;
+  }
+
+  /** The word's UTF-8 bytes; throws IllegalArgumentException unless it is 1 to MAX_PATTERN bytes. */
+  static byte[] pattern(String word) {
+    byte[] pattern = word.getBytes(StandardCharsets.UTF_8);
+    if (pattern.length == 0 || pattern.length > MappedCorpus.MAX_PATTERN) {
+      throw new IllegalArgumentException("word must be 1 to " + MappedCorpus.MAX_PATTERN + " bytes");
+    }
+    return pattern;
+  }
+
+  private FmIndex fullTextNow() {
+    CompletableFuture<FmIndex> current = fullText;
+    return current.isCompletedExceptionally() ? null : current.getNow(null);
+  }
+
+  private void scanInto(MappedCorpus snapshot, Map<String, Long> counts, List<String> words, boolean wholeToken) {
+    if (words.isEmpty()) {
+      return;
+    }
+    bytesScanned.add(snapshot.size());
+    long[] found = new AhoCorasick(words).count(snapshot, wholeToken);
+    for (int i = 0; i < found.length; i++) {
+      counts.put(words.get(i), found[i]);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package com.java.multithreading.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Full-text index over a {@link MappedCorpus}: the Burrows-Wheeler transform of the corpus plus
+ * byte counts every {@link #INTERVAL} rows, so any substring is counted by backward search in
+ * O(pattern length) no matter how large the corpus is. Together that is about 1.5 bytes per
+ * corpus byte, kept in a file that is mapped rather than read onto the heap.
+ *
+ * The file records the size and checksum of the corpus it was built from. {@link #open} takes an
+ * index of the corpus or of an earlier, shorter version of a file that has been appended to
+ * since, and ignores any other. Building needs a 4 byte per corpus byte suffix array on the heap, so
+ * corpora are limited to {@link SuffixArray#MAX_SIZE}.
+ */
+public final class FmIndex {
+  /** Rows between two stored count vectors; a rank query scans at most half of this. */
+  static final int INTERVAL = 1 << 11;
+  private static final long MAGIC = 0x464d2d494e444558L;
+  private static final int HEADER_SIZE = 32;
+
+  private final ByteBuffer bwt;
+  private final IntBuffer checkpoints;
+  private final int rows;
+  private final int primary;
+  private final int[] firstRow = new int[256];
+
+  private FmIndex(ByteBuffer bwt, IntBuffer checkpoints, int rows, int primary) {
+    this.bwt = bwt;
+    this.checkpoints = checkpoints;
+    this.rows = rows;
+    this.primary = primary;
+    int[] totals = new int[256];
+    ranks(rows, totals);
+    int row = 1;
+    for (int c = 0; c < 256; c++) {
+      firstRow[c] = row;
+      row += totals[c];
+    }
+  }
+
+  /**
+   * Opens the index in the file, or returns null if there is none or it was built from something
+   * other than the corpus or a prefix of it; {@link #corpusSize} tells which.
+   */
+  public static FmIndex open(Path file, MappedCorpus corpus) throws IOException {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        return null;
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      long indexed = header.getLong(8);
+      if (header.getLong(0) != MAGIC || header.getInt(28) != INTERVAL || indexed > corpus.size()
+          || indexed > SuffixArray.MAX_SIZE || header.getLong(16) != checksum(corpus, indexed)) {
+        return null;
+      }
+      int rows = (int) indexed + 1;
+      long checkpointBytes = (long) (rows / INTERVAL + 1) * 256 * 4;
+      if (channel.size() != HEADER_SIZE + rows + checkpointBytes) {
+        return null;
+      }
+      ByteBuffer bwt = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, rows);
+      IntBuffer checkpoints = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + rows, checkpointBytes).asIntBuffer();
+      return new FmIndex(bwt, checkpoints, rows, header.getInt(24));
+    }
+  }
+
+  /**
+   * Builds the index into the file, replacing it atomically so a failed build never leaves a
+   * partial index behind, and opens it.
+   */
+  public static FmIndex build(MappedCorpus corpus, Path file) throws IOException {
+    int[] sa = SuffixArray.of(corpus);
+    int rows = sa.length;
+    int[] checkpoints = new int[(rows / INTERVAL + 1) * 256];
+    int[] running = new int[256];
+    int primary = -1;
+    Path partial = file.resolveSibling(file.getFileName() + ".partial");
+    try (FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+      out.position(HEADER_SIZE);
+      for (int i = 0; i < rows; i++) {
+        if (i % INTERVAL == 0) {
+          System.arraycopy(running, 0, checkpoints, i / INTERVAL * 256, 256);
+        }
+        byte before = 0;
+        if (sa[i] == 0) {
+          primary = i;
+        } else {
+          before = corpus.byteAt(sa[i] - 1);
+          running[before & 0xff]++;
+        }
+        if (!buffer.hasRemaining()) {
+          writeFully(out, buffer);
+        }
+        buffer.put(before);
+      }
+      if (rows % INTERVAL == 0) {
+        System.arraycopy(running, 0, checkpoints, rows / INTERVAL * 256, 256);
+      }
+      sa = null;
+      for (int count : checkpoints) {
+        if (buffer.remaining() < 4) {
+          writeFully(out, buffer);
+        }
+        buffer.putInt(count);
+      }
+      writeFully(out, buffer);
+
+      buffer.putLong(MAGIC).putLong(corpus.size()).putLong(checksum(corpus, corpus.size())).putInt(primary).putInt(INTERVAL);
+      out.position(0);
+      writeFully(out, buffer);
+      out.force(true);
+    }
+    Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return open(file, corpus);
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /** CRC-32 of the first {@code length} bytes, to tell an index of this corpus from one of another file. */
+  static long checksum(MappedCorpus corpus, long length) {
+    CRC32 crc = new CRC32();
+    for (int i = 0; i < corpus.segmentCount(); i++) {
+      long start = (long) i << MappedCorpus.SEGMENT_SHIFT;
+      if (start >= length) {
+        break;
+      }
+      ByteBuffer segment = corpus.segment(i).duplicate();
+      segment.limit((int) Math.min(MappedCorpus.SEGMENT_SIZE, length - start));
+      crc.update(segment);
+    }
+    return crc.getValue();
+  }
+
+  /** Bytes of the corpus the index covers, from its start. */
+  public long corpusSize() {
+    return rows - 1;
+  }
+
+  /** Occurrences of the pattern, overlapping ones included. */
+  public long count(byte[] pattern) {
+    int[] range = range(pattern);
+    return range[1] - range[0];
+  }
+
+  /** Occurrences of the pattern at the start of a token, like a prefix query against the token index. */
+  public long countPrefix(byte[] pattern) {
+    int[] range = range(pattern);
+    if (range[0] == range[1]) {
+      return 0;
+    }
+    int[] before = new int[256];
+    int[] after = new int[256];
+    ranks(range[0], before);
+    ranks(range[1], after);
+    // Rows are suffixes starting with the pattern; their BWT byte is the one preceding it.
+    long count = range[1] - range[0];
+    for (int c = 0; c < 256; c++) {
+      if (TokenIndex.isTokenByte((byte) c)) {
+        count -= after[c] - before[c];
+      }
+    }
+    return count;
+  }
+
+  /** Rows {@code [from, to)} of the sorted suffixes that start with the pattern. */
+  private int[] range(byte[] pattern) {
+    int from = 0;
+    int to = rows;
+    for (int i = pattern.length - 1; i >= 0 && from < to; i--) {
+      int c = pattern[i] & 0xff;
+      from = firstRow[c] + rank(c, from);
+      to = firstRow[c] + rank(c, to);
+    }
+    return new int[] {from, Math.max(from, to)};
+  }
+
+  /** Occurrences of byte c in the BWT before the row, scanning from the nearest checkpoint. */
+  private int rank(int c, int row) {
+    int checkpoint = row / INTERVAL;
+    int start = checkpoint * INTERVAL;
+    if (row - start > INTERVAL / 2 && start + INTERVAL <= rows) {
+      return checkpoints.get((checkpoint + 1) * 256 + c) - occurrences(c, row, start + INTERVAL);
+    }
+    return checkpoints.get(checkpoint * 256 + c) + occurrences(c, start, row);
+  }
+
+  private int occurrences(int c, int from, int to) {
+    byte target = (byte) c;
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      if (bwt.get(i) == target) {
+        count++;
+      }
+    }
+    if (c == 0 && primary >= from && primary < to) {
+      count--;
+    }
+    return count;
+  }
+
+  /** Fills counts with the rank of every byte at the row. */
+  private void ranks(int row, int[] counts) {
+    int checkpoint = row / INTERVAL;
+    int start = checkpoint * INTERVAL;
+    for (int c = 0; c < 256; c++) {
+      counts[c] = checkpoints.get(checkpoint * 256 + c);
+    }
+    for (int i = start; i < row; i++) {
+      counts[bwt.get(i) & 0xff]++;
+    }
+    if (primary >= start && primary < row) {
+      counts[0]--;
+    }
+  }
+}
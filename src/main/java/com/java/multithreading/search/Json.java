@@ -0,0 +1,36 @@
+package com.java.multithreading.search;
+
+import java.util.Map;
+
+/** Just enough JSON output for the server's responses. */
+public final class Json {
+
+  private Json() {
+  }
+
+  public static String object(Map<String, ? extends Number> values) {
+    StringBuilder json = new StringBuilder("{");
+    for (Map.Entry<String, ? extends Number> entry : values.entrySet()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      quote(json, entry.getKey()).append(':').append(entry.getValue());
+    }
+    return json.append('}').toString();
+  }
+
+  public static StringBuilder quote(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    return json.append('"');
+  }
+}
@@ -0,0 +1,176 @@
+package com.java.multithreading.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a text file mapped into memory, searched as raw UTF-8 bytes. Nothing is read
+ * up front and the file stays in the page cache rather than the heap, so opening a 10GB log costs
+ * the same as opening a small one.
+ *
+ * A single mapping is limited to 2GB, so the file is mapped as 1GB segments. Each mapping runs
+ * {@link #MAX_PATTERN} bytes past its segment into the next one, which lets a scan of one segment
+ * finish matches that straddle its end without touching a second buffer.
+ *
+ * A corpus is a fixed-size snapshot. {@link #refresh} picks up bytes appended to the file since
+ * as a new snapshot that shares the channel and every mapping that did not change.
+ */
+public final class MappedCorpus implements Closeable {
+  static final int SEGMENT_SHIFT = 30;
+  static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  /** Longest pattern, in UTF-8 bytes, that a search can match across a segment boundary. */
+  public static final int MAX_PATTERN = 1 << 16;
+
+  private final FileChannel channel;
+  private final long size;
+  private final MappedByteBuffer[] segments;
+
+  private MappedCorpus(FileChannel channel, long size, MappedByteBuffer[] previous) throws IOException {
+    this.channel = channel;
+    this.size = size;
+    int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    this.segments = new MappedByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long start = (long) i << SEGMENT_SHIFT;
+      long length = Math.min(size - start, (long) SEGMENT_SIZE + MAX_PATTERN);
+      segments[i] = i < previous.length && previous[i].capacity() == length ? previous[i]
+          : channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+  }
+
+  public static MappedCorpus open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      return new MappedCorpus(channel, channel.size(), new MappedByteBuffer[0]);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * The file as it is now if it has grown, remapping only the segments that changed, or this
+   * corpus otherwise. A file that shrank is not followed: its old bytes may be gone, so this
+   * throws rather than handing out mappings that fault when read.
+   */
+  public MappedCorpus refresh() throws IOException {
+    long current = channel.size();
+    if (current < size) {
+      throw new IOException("file shrank from " + size + " to " + current + " bytes");
+    }
+    return current == size ? this : new MappedCorpus(channel, current, segments);
+  }
+
+  public long size() {
+    return size;
+  }
+
+  /** The open file, for positional reads such as {@code transferTo}; closed with the corpus. */
+  public FileChannel channel() {
+    return channel;
+  }
+
+  int segmentCount() {
+    return segments.length;
+  }
+
+  /** Mapping of segment i; its byte 0 is file position {@code i * SEGMENT_SIZE}. */
+  ByteBuffer segment(int index) {
+    return segments[index];
+  }
+
+  byte byteAt(long position) {
+    return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_SIZE - 1)));
+  }
+
+  /** Copies {@code length} bytes starting at the position; the range must fit in one mapping. */
+  byte[] bytes(long position, int length) {
+    byte[] bytes = new byte[length];
+    segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_SIZE - 1)), bytes);
+    return bytes;
+  }
+
+  /**
+   * Counts occurrences of the pattern, overlapping ones included. With {@code wholeToken} only
+   * matches with no token byte directly before or after them count. Large corpora are counted
+   * in parallel chunks, each owning the matches that start in it.
+   */
+  public long count(byte[] pattern, boolean wholeToken) {
+    return count(pattern, wholeToken, wholeToken);
+  }
+
+  /**
+   * Counts occurrences of the pattern, only those at the start of a token with {@code tokenStart}
+   * and at the end of one with {@code tokenEnd}.
+   */
+  public long count(byte[] pattern, boolean tokenStart, boolean tokenEnd) {
+    return countFrom(pattern, tokenStart, tokenEnd, 0);
+  }
+
+  /** Like {@link #count(byte[], boolean, boolean)} for the matches starting at or after {@code from}. */
+  long countFrom(byte[] pattern, boolean tokenStart, boolean tokenEnd, long from) {
+    if (pattern.length == 0 || pattern.length > MAX_PATTERN) {
+      throw new IllegalArgumentException("pattern must be 1 to " + MAX_PATTERN + " bytes");
+    }
+    return ParallelScan.run(from, size, (start, end) -> count(pattern, tokenStart, tokenEnd, start, end), Long::sum);
+  }
+
+  /** Counts the matches that start in {@code [from, to)}, reading past {@code to} as needed. */
+  long count(byte[] pattern, boolean tokenStart, boolean tokenEnd, long from, long to) {
+    long count = 0;
+    for (long start = from; start < to; ) {
+      int segment = (int) (start >>> SEGMENT_SHIFT);
+      long segmentStart = (long) segment << SEGMENT_SHIFT;
+      long end = Math.min(to, segmentStart + SEGMENT_SIZE);
+      count += countIn(segment, segmentStart, (int) (start - segmentStart), (int) (end - segmentStart), pattern,
+          tokenStart, tokenEnd);
+      start = end;
+    }
+    return count;
+  }
+
+  private long countIn(int segment, long segmentStart, int from, int to, byte[] pattern, boolean tokenStart,
+      boolean tokenEnd) {
+    ByteBuffer buffer = segments[segment];
+    int last = Math.min(to, buffer.limit() - pattern.length + 1);
+    byte first = pattern[0];
+    long count = 0;
+    for (int i = from; i < last; i++) {
+      if (buffer.get(i) != first || !matchesAt(buffer, i, pattern)) {
+        continue;
+      }
+      if (tokenStart && !startsToken(segmentStart + i) || tokenEnd && !endsToken(segmentStart + i + pattern.length)) {
+        continue;
+      }
+      count++;
+    }
+    return count;
+  }
+
+  private static boolean matchesAt(ByteBuffer buffer, int position, byte[] pattern) {
+    for (int j = 1; j < pattern.length; j++) {
+      if (buffer.get(position + j) != pattern[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean startsToken(long start) {
+    return start == 0 || !TokenIndex.isTokenByte(byteAt(start - 1));
+  }
+
+  private boolean endsToken(long end) {
+    return end == size || !TokenIndex.isTokenByte(byteAt(end));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
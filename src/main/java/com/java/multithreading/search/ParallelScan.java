@@ -0,0 +1,65 @@
+package com.java.multithreading.search;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs a scan of a byte range as fork-join tasks over sub-ranges and merges their results.
+ * Ranges under {@link #SPLIT_THRESHOLD} are scanned on the caller's thread, where forking would
+ * cost more than it saves. Larger ones are halved down to leaves of about a quarter of a worker's
+ * share, but never under {@link #MIN_LEAF}, so idle workers can steal and a slow leaf does not
+ * hold up the result.
+ *
+ * The scans decide which sub-range owns a match that crosses a cut, e.g. by where it starts.
+ */
+final class ParallelScan {
+  static final long SPLIT_THRESHOLD = 8L << 20;
+  static final long MIN_LEAF = 1L << 20;
+
+  interface RangeScan<T> {
+    T scan(long from, long to);
+  }
+
+  private ParallelScan() {
+  }
+
+  static <T> T run(long from, long to, RangeScan<T> scan, BinaryOperator<T> merge) {
+    if (to - from < SPLIT_THRESHOLD) {
+      return scan.scan(from, to);
+    }
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    long leaf = Math.max(MIN_LEAF, (to - from) / (4L * pool.getParallelism()));
+    return pool.invoke(new Task<>(from, to, leaf, scan, merge));
+  }
+
+  private static final class Task<T> extends RecursiveTask<T> {
+    private static final long serialVersionUID = 1L;
+
+    private final long from;
+    private final long to;
+    private final long leaf;
+    private final RangeScan<T> scan;
+    private final BinaryOperator<T> merge;
+
+    Task(long from, long to, long leaf, RangeScan<T> scan, BinaryOperator<T> merge) {
+      this.from = from;
+      this.to = to;
+      this.leaf = leaf;
+      this.scan = scan;
+      this.merge = merge;
+    }
+
+    @Override
+    protected T compute() {
+      if (to - from <= leaf) {
+        return scan.scan(from, to);
+      }
+      long middle = from + (to - from) / 2;
+      Task<T> right = new Task<>(middle, to, leaf, scan, merge);
+      right.fork();
+      T left = new Task<>(from, middle, leaf, scan, merge).compute();
+      return merge.apply(left, right.join());
+    }
+  }
+}
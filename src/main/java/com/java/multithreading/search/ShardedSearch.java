@@ -0,0 +1,391 @@
+package com.java.multithreading.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Word counting over a set of files, such as a directory of rotated logs. Each file is a shard
+ * with its own {@link CorpusSearch}, opened and indexed in parallel with the others.
+ *
+ * A query is scattered as one task per shard to a pool of {@link #QUERY_THREADS} threads shared
+ * by all shards, and the per-shard counts are gathered as they complete. A slow query holds up
+ * neither the other shards nor later queries on its own shard; only the caller waits for all of
+ * them. Shards can be added and removed at any time. Every scattered query keeps its shard open
+ * until it has run, so a removed shard is closed once the queries already sent to it are done.
+ */
+public final class ShardedSearch implements Closeable {
+  public static int QUERY_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private final Path indexDirectory;
+  private final long tailMillis;
+  private final ConcurrentSkipListMap<String, Shard> shards = new ConcurrentSkipListMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final LongAdder retiredBytesScanned = new LongAdder();
+  private final ThreadPoolExecutor workers;
+  private ScheduledExecutorService watcher;
+
+  /** Per-shard counts of one query; shards that could not answer are listed as failed. */
+  public static final class Counts {
+    private final Map<String, Long> shards;
+    private final List<String> failed;
+
+    Counts(Map<String, Long> shards, List<String> failed) {
+      this.shards = Collections.unmodifiableMap(shards);
+      this.failed = Collections.unmodifiableList(failed);
+    }
+
+    /** Count per shard name, in name order. */
+    public Map<String, Long> shards() {
+      return shards;
+    }
+
+    public List<String> failed() {
+      return failed;
+    }
+
+    public long total() {
+      long total = 0;
+      for (long count : shards.values()) {
+        total += count;
+      }
+      return total;
+    }
+  }
+
+  private static final class Shard {
+    final String name;
+    final CompletableFuture<CorpusSearch> search;
+    /** Completes once the shard is closed and no full-text index of it is being built. */
+    final CompletableFuture<Void> closed = new CompletableFuture<>();
+    /** Queries holding the shard open, plus one until {@link #close}; 0 once closed. */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    Shard(String name, Path file, Path fullTextFile, long tailMillis, Executor workers) {
+      this.name = name;
+      this.search = CompletableFuture.supplyAsync(() -> {
+        try {
+          CorpusSearch search = new CorpusSearch(MappedCorpus.open(file), fullTextFile);
+          if (tailMillis > 0) {
+            search.tail(tailMillis, TimeUnit.MILLISECONDS);
+          }
+          return search;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, workers);
+    }
+
+    CorpusSearch now() {
+      return search.isCompletedExceptionally() ? null : search.getNow(null);
+    }
+
+    /** Keeps the shard open for a query; false if it is already closed. */
+    boolean acquire() {
+      return references.getAndUpdate(count -> count == 0 ? 0 : count + 1) != 0;
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        search.whenComplete((opened, failure) -> {
+          if (opened == null) {
+            closed.complete(null);
+            return;
+          }
+          opened.close();
+          try {
+            opened.corpus().close();
+          } catch (IOException e) {
+            System.err.println("closing shard " + name + ": " + e);
+          }
+          opened.indexing().thenRun(() -> closed.complete(null));
+        });
+      }
+    }
+
+    /** Closes the corpus once it has finished opening and the queries holding it open are done. */
+    void close() {
+      release();
+    }
+  }
+
+  /**
+   * @param indexDirectory where each shard keeps its {@link FmIndex}, as {@code <name>.fmi}; null
+   *                       leaves substring and prefix queries to scans
+   * @param tailMillis     how often each shard checks its file for appended bytes; 0 for never
+   */
+  public ShardedSearch(Path indexDirectory, long tailMillis) throws IOException {
+    this.indexDirectory = indexDirectory;
+    this.tailMillis = tailMillis;
+    this.workers = new ThreadPoolExecutor(QUERY_THREADS, QUERY_THREADS, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "shard-query");
+          thread.setDaemon(true);
+          return thread;
+        });
+    // Idle threads exit, so the pool needs no shutdown and closing shards never races one.
+    workers.allowCoreThreadTimeOut(true);
+    if (indexDirectory != null) {
+      Files.createDirectories(indexDirectory);
+    }
+  }
+
+  /** Starts opening and indexing the file as a shard named after it; false if there already is one. */
+  public boolean add(Path file) {
+    String name = file.getFileName().toString();
+    if (shards.containsKey(name)) {
+      return false;
+    }
+    Path fullTextFile = indexDirectory == null ? null : indexDirectory.resolve(name + ".fmi");
+    Shard shard = new Shard(name, file, fullTextFile, tailMillis, workers);
+    if (shards.putIfAbsent(name, shard) != null) {
+      shard.close();
+      return false;
+    }
+    generation.incrementAndGet();
+    shard.search.whenComplete((search, e) -> {
+      if (e != null) {
+        System.err.println("shard " + name + " unavailable: " + e.getCause());
+      }
+    });
+    return true;
+  }
+
+  /** Drops the shard once its queued queries are done; false if there is none by that name. */
+  public boolean remove(String name) {
+    return detach(name) != null;
+  }
+
+  private Shard detach(String name) {
+    Shard shard = shards.remove(name);
+    if (shard == null) {
+      return null;
+    }
+    generation.incrementAndGet();
+    CorpusSearch search = shard.now();
+    if (search != null) {
+      retiredBytesScanned.add(search.bytesScanned());
+    }
+    shard.close();
+    return shard;
+  }
+
+  /**
+   * Makes the shards match the regular files in the directory, skipping hidden ones: files that
+   * appeared are added, and shards whose file is gone are removed along with their full-text index.
+   */
+  public synchronized void sync(Path directory) throws IOException {
+    Set<String> present = new HashSet<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.sorted().collect(Collectors.toList())) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(".") && Files.isRegularFile(file)) {
+          present.add(name);
+          add(file);
+        }
+      }
+    }
+    for (String name : shards.keySet()) {
+      Shard removed = present.contains(name) ? null : detach(name);
+      if (removed != null && indexDirectory != null) {
+        Path fullTextFile = indexDirectory.resolve(name + ".fmi");
+        // A build may still be writing the index; a shard added again by the name keeps it.
+        removed.closed.thenRun(() -> {
+          if (!shards.containsKey(name)) {
+            try {
+              Files.deleteIfExists(fullTextFile);
+            } catch (IOException e) {
+              System.err.println("deleting " + fullTextFile + ": " + e);
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /** Syncs with the directory every period on a daemon thread, until {@link #close}. */
+  public synchronized void watch(Path directory, long period, TimeUnit unit) {
+    if (watcher != null) {
+      throw new IllegalStateException("already watching");
+    }
+    watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "shard-watch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    watcher.scheduleWithFixedDelay(() -> {
+      try {
+        sync(directory);
+      } catch (IOException | RuntimeException e) {
+        System.err.println("syncing shards with " + directory + ": " + e);
+      }
+    }, period, period, unit);
+  }
+
+  /** Counts the word in every shard, completing once all of them have answered or failed. */
+  public CompletableFuture<Counts> count(String word, CorpusSearch.Mode mode) {
+    CorpusSearch.pattern(word);
+    return gather(search -> search.count(word, mode), (counts, shard, count) -> counts.put(shard, count))
+        .thenApply(gathered -> new Counts(gathered.values, gathered.failed));
+  }
+
+  /** Counts every word in every shard as {@link CorpusSearch#countAll} does, summed over the shards. */
+  public CompletableFuture<Map<String, Long>> countAll(List<String> words, CorpusSearch.Mode mode) {
+    for (String word : words) {
+      CorpusSearch.pattern(word);
+    }
+    return gather(search -> search.countAll(words, mode), (totals, shard, counts) -> {
+      for (Map.Entry<String, Long> entry : counts.entrySet()) {
+        totals.merge(entry.getKey(), entry.getValue(), Long::sum);
+      }
+    }).thenApply(gathered -> {
+      if (!gathered.failed.isEmpty()) {
+        throw new CompletionException(new IOException("shards failed: " + gathered.failed));
+      }
+      Map<String, Long> totals = new LinkedHashMap<>();
+      for (String word : words) {
+        totals.put(word, gathered.values.getOrDefault(word, 0L));
+      }
+      return totals;
+    });
+  }
+
+  private interface Query<T> {
+    T run(CorpusSearch search);
+  }
+
+  private interface Merge<T> {
+    void into(Map<String, Long> values, String shard, T result);
+  }
+
+  private static final class Gathered {
+    final Map<String, Long> values = new TreeMap<>();
+    final List<String> failed = new ArrayList<>();
+  }
+
+  /** Runs the query on every shard in the pool and merges each result in as soon as it arrives. */
+  private <T> CompletableFuture<Gathered> gather(Query<T> query, Merge<T> merge) {
+    Gathered gathered = new Gathered();
+    List<CompletableFuture<Void>> pending = new ArrayList<>();
+    for (Shard shard : shards.values()) {
+      CompletableFuture<T> result;
+      if (shard.acquire()) {
+        result = shard.search.thenApplyAsync(query::run, workers);
+        result.whenComplete((done, e) -> shard.release());
+      } else {
+        // closed since the shards were listed
+        result = new CompletableFuture<>();
+        result.completeExceptionally(new IOException("shard " + shard.name + " was removed"));
+      }
+      pending.add(result.handle((found, e) -> {
+        synchronized (gathered) {
+          if (e == null) {
+            merge.into(gathered.values, shard.name, found);
+          } else {
+            gathered.failed.add(shard.name);
+          }
+        }
+        return null;
+      }));
+    }
+    return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+      synchronized (gathered) {
+        Collections.sort(gathered.failed);
+        return gathered;
+      }
+    });
+  }
+
+  /** Changes whenever any shard's counts may have, or shards were added or removed. */
+  public String version() {
+    long sum = 0;
+    for (Shard shard : shards.values()) {
+      CorpusSearch search = shard.now();
+      if (search != null) {
+        sum += search.version();
+      }
+    }
+    return generation.get() + "." + sum;
+  }
+
+  /** The latest snapshot of the named shard's corpus, or null if there is no such shard open. */
+  public MappedCorpus corpus(String name) {
+    Shard shard = shards.get(name);
+    CorpusSearch search = shard == null ? null : shard.now();
+    return search == null ? null : search.corpus();
+  }
+
+  /** Size of each open shard's corpus by name; shards still opening are left out. */
+  public Map<String, Long> sizes() {
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    for (Shard shard : shards.values()) {
+      CorpusSearch search = shard.now();
+      if (search != null) {
+        sizes.put(shard.name, search.corpus().size());
+      }
+    }
+    return sizes;
+  }
+
+  public int shardCount() {
+    return shards.size();
+  }
+
+  /** Shards whose token index is built. */
+  public int indexedShards() {
+    int indexed = 0;
+    for (Shard shard : shards.values()) {
+      CorpusSearch search = shard.now();
+      if (search != null && search.index().isDone()) {
+        indexed++;
+      }
+    }
+    return indexed;
+  }
+
+  /** Corpus bytes read by scans so far, including by shards since removed. */
+  public long bytesScanned() {
+    long scanned = retiredBytesScanned.sum();
+    for (Shard shard : shards.values()) {
+      CorpusSearch search = shard.now();
+      if (search != null) {
+        scanned += search.bytesScanned();
+      }
+    }
+    return scanned;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (watcher != null) {
+      watcher.shutdownNow();
+    }
+    for (String name : shards.keySet()) {
+      remove(name);
+    }
+  }
+}
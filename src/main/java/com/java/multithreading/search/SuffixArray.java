@@ -0,0 +1,208 @@
+package com.java.multithreading.search;
+
+import java.util.Arrays;
+
+/**
+ * Suffix array construction by induced sorting (SA-IS, Nong, Zhang and Chan): linear time, and
+ * besides the result only a type bit per position and a bucket array per recursion level. Each
+ * level's reduced string and its suffix array live in the unused parts of the result array.
+ */
+final class SuffixArray {
+  private SuffixArray() {
+  }
+
+  /** Largest corpus that fits, with its sentinel, in an {@code int[]} suffix array. */
+  static final long MAX_SIZE = Integer.MAX_VALUE - 2;
+
+  /**
+   * Suffix array of the corpus followed by a sentinel smaller than every byte, so
+   * {@code sa[0] == corpus.size()} and row i &gt; 0 is the i-th smallest real suffix.
+   */
+  static int[] of(MappedCorpus corpus) {
+    if (corpus.size() > MAX_SIZE) {
+      throw new IllegalArgumentException("corpus over " + MAX_SIZE + " bytes");
+    }
+    int n = (int) corpus.size() + 1;
+    int[] sa = new int[n];
+    sort(new CorpusText(corpus, n), sa, n, 256);
+    return sa;
+  }
+
+  /** Symbols of one level; the last one is the sentinel 0 and no other symbol is 0. */
+  private abstract static class Text {
+    abstract int at(int i);
+  }
+
+  /** Corpus bytes shifted up by one to make room for the sentinel. */
+  private static final class CorpusText extends Text {
+    private final MappedCorpus corpus;
+    private final int sentinel;
+
+    CorpusText(MappedCorpus corpus, int length) {
+      this.corpus = corpus;
+      this.sentinel = length - 1;
+    }
+
+    @Override
+    int at(int i) {
+      return i == sentinel ? 0 : (corpus.byteAt(i) & 0xff) + 1;
+    }
+  }
+
+  private static final class IntText extends Text {
+    private final int[] array;
+    private final int offset;
+
+    IntText(int[] array, int offset) {
+      this.array = array;
+      this.offset = offset;
+    }
+
+    @Override
+    int at(int i) {
+      return array[offset + i];
+    }
+  }
+
+  /** Sorts the suffixes of s[0, n) into sa[0, n); symbols are in [0, k]. */
+  private static void sort(Text s, int[] sa, int n, int k) {
+    if (n == 1) {
+      sa[0] = 0;
+      return;
+    }
+    // Bit set: the suffix is S-type, smaller than the one after it.
+    byte[] types = new byte[(n >>> 3) + 1];
+    markS(types, n - 1);
+    int next = s.at(n - 2);
+    for (int i = n - 3; i >= 0; i--) {
+      int c = s.at(i);
+      if (c < next || (c == next && isS(types, i + 1))) {
+        markS(types, i);
+      }
+      next = c;
+    }
+    int[] counts = new int[k + 1];
+    for (int i = 0; i < n; i++) {
+      counts[s.at(i)]++;
+    }
+    int[] bucket = new int[k + 1];
+
+    // Sort the LMS substrings by inducing from their unsorted positions.
+    ends(counts, bucket);
+    Arrays.fill(sa, 0, n, -1);
+    for (int i = 1; i < n; i++) {
+      if (isLms(types, i)) {
+        sa[--bucket[s.at(i)]] = i;
+      }
+    }
+    induce(s, sa, n, types, counts, bucket);
+
+    // Name them by rank into the reduced string, stored at the end of sa.
+    int n1 = 0;
+    for (int i = 0; i < n; i++) {
+      if (isLms(types, sa[i])) {
+        sa[n1++] = sa[i];
+      }
+    }
+    Arrays.fill(sa, n1, n, -1);
+    int name = 0;
+    int previous = -1;
+    for (int i = 0; i < n1; i++) {
+      int position = sa[i];
+      boolean differs = false;
+      for (int d = 0; d < n; d++) {
+        if (previous == -1 || s.at(position + d) != s.at(previous + d)
+            || isS(types, position + d) != isS(types, previous + d)) {
+          differs = true;
+          break;
+        }
+        if (d > 0 && (isLms(types, position + d) || isLms(types, previous + d))) {
+          break;
+        }
+      }
+      if (differs) {
+        name++;
+        previous = position;
+      }
+      sa[n1 + (position >>> 1)] = name - 1;
+    }
+    for (int i = n - 1, j = n - 1; i >= n1; i--) {
+      if (sa[i] >= 0) {
+        sa[j--] = sa[i];
+      }
+    }
+
+    // Sort the reduced string; names are unique when every LMS substring differs.
+    int reduced = n - n1;
+    if (name < n1) {
+      sort(new IntText(sa, reduced), sa, n1, name - 1);
+    } else {
+      for (int i = 0; i < n1; i++) {
+        sa[sa[reduced + i]] = i;
+      }
+    }
+
+    // Place the LMS suffixes in their final order and induce the rest from them.
+    for (int i = 1, j = 0; i < n; i++) {
+      if (isLms(types, i)) {
+        sa[reduced + j++] = i;
+      }
+    }
+    for (int i = 0; i < n1; i++) {
+      sa[i] = sa[reduced + sa[i]];
+    }
+    Arrays.fill(sa, n1, n, -1);
+    ends(counts, bucket);
+    for (int i = n1 - 1; i >= 0; i--) {
+      int j = sa[i];
+      sa[i] = -1;
+      sa[--bucket[s.at(j)]] = j;
+    }
+    induce(s, sa, n, types, counts, bucket);
+  }
+
+  private static void induce(Text s, int[] sa, int n, byte[] types, int[] counts, int[] bucket) {
+    starts(counts, bucket);
+    for (int i = 0; i < n; i++) {
+      int j = sa[i] - 1;
+      if (j >= 0 && !isS(types, j)) {
+        sa[bucket[s.at(j)]++] = j;
+      }
+    }
+    ends(counts, bucket);
+    for (int i = n - 1; i >= 0; i--) {
+      int j = sa[i] - 1;
+      if (j >= 0 && isS(types, j)) {
+        sa[--bucket[s.at(j)]] = j;
+      }
+    }
+  }
+
+  private static void starts(int[] counts, int[] bucket) {
+    int sum = 0;
+    for (int c = 0; c < counts.length; c++) {
+      bucket[c] = sum;
+      sum += counts[c];
+    }
+  }
+
+  private static void ends(int[] counts, int[] bucket) {
+    int sum = 0;
+    for (int c = 0; c < counts.length; c++) {
+      sum += counts[c];
+      bucket[c] = sum;
+    }
+  }
+
+  private static void markS(byte[] types, int i) {
+    types[i >>> 3] |= 1 << (i & 7);
+  }
+
+  private static boolean isS(byte[] types, int i) {
+    return (types[i >>> 3] & (1 << (i & 7))) != 0;
+  }
+
+  private static boolean isLms(byte[] types, int i) {
+    return i > 0 && isS(types, i) && !isS(types, i - 1);
+  }
+}
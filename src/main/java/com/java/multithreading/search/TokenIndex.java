@@ -0,0 +1,281 @@
+package com.java.multithreading.search;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Occurrence count of every token in a corpus, so a word query is a hash lookup instead of a scan.
+ * A token is a maximal run of ASCII letters, digits and underscores, plus any non-ASCII UTF-8
+ * bytes; matching is case sensitive. Tokens are kept as their raw UTF-8 bytes, one Latin-1 char
+ * per byte, which skips decoding and stores each char in one byte.
+ *
+ * The corpus is cut into chunks of at most 64MB, at least one per core, with each cut moved
+ * forward to a token boundary. Chunks are counted into their own maps on the common fork-join
+ * pool and the maps are merged pairwise. The index grows with the number of distinct tokens,
+ * not with the size of the corpus.
+ *
+ * {@link #append} adds the tokens of bytes appended to the file the same way, counting only the
+ * new range, while readers keep looking up counts without locking.
+ */
+public final class TokenIndex {
+  private static final long CHUNK_SIZE = 64L << 20;
+
+  private final ConcurrentHashMap<String, Long> counts;
+  private final LongAdder tokens = new LongAdder();
+  private volatile long indexedTo;
+
+  private TokenIndex(Map<String, Long> counts, long indexedTo) {
+    this.counts = new ConcurrentHashMap<>(counts);
+    for (long count : counts.values()) {
+      tokens.add(count);
+    }
+    this.indexedTo = indexedTo;
+  }
+
+  public static TokenIndex build(MappedCorpus corpus) {
+    return new TokenIndex(count(corpus, 0, corpus.size()), corpus.size());
+  }
+
+  /** Counts every token of {@code [from, to)} in parallel chunks. */
+  private static Map<String, Long> count(MappedCorpus corpus, long from, long to) {
+    long[] bounds = chunkBounds(corpus, from, to);
+    return IntStream.range(0, bounds.length - 1).parallel()
+        .mapToObj(i -> countChunk(corpus, bounds[i], bounds[i + 1]))
+        .reduce(TokenIndex::merge)
+        .orElseGet(HashMap::new);
+  }
+
+  /**
+   * Adds the tokens between the end of what is indexed and the end of the corpus, which must be
+   * a later snapshot of the same file. A token the append continued is counted again whole.
+   * Appends are serialized; readers see each token's count change once.
+   */
+  public synchronized void append(MappedCorpus corpus) {
+    long from = indexedTo;
+    long to = corpus.size();
+    if (to <= from) {
+      return;
+    }
+    String continued = null;
+    if (from > 0 && isTokenByte(corpus.byteAt(from - 1)) && isTokenByte(corpus.byteAt(from))) {
+      long start = from - 1;
+      while (start > 0 && start > from - MappedCorpus.MAX_PATTERN && isTokenByte(corpus.byteAt(start - 1))) {
+        start--;
+      }
+      continued = new String(corpus.bytes(start, (int) (from - start)), StandardCharsets.ISO_8859_1);
+      from = start;
+    }
+    Map<String, Long> added = count(corpus, from, to);
+    if (continued != null) {
+      counts.computeIfPresent(continued, (token, count) -> count == 1 ? null : count - 1);
+      tokens.decrement();
+    }
+    for (Map.Entry<String, Long> entry : added.entrySet()) {
+      counts.merge(entry.getKey(), entry.getValue(), Long::sum);
+      tokens.add(entry.getValue());
+    }
+    indexedTo = to;
+  }
+
+  /** Corpus bytes counted so far. */
+  public long indexedTo() {
+    return indexedTo;
+  }
+
+  /**
+   * Cuts {@code [from, to)} on segment starts and every {@code CHUNK_SIZE} in between, each cut
+   * moved forward out of any token it lands in, but never past the overlap of the mapping the
+   * chunk starts in.
+   */
+  static long[] chunkBounds(MappedCorpus corpus, long from, long to) {
+    long chunkSize = Math.max(1 << 16, Math.min(CHUNK_SIZE, (to - from) / Runtime.getRuntime().availableProcessors() + 1));
+    long[] bounds = new long[8];
+    int count = 0;
+    bounds[count++] = from;
+    for (long previous = from; ; ) {
+      long segmentEnd = ((previous >>> MappedCorpus.SEGMENT_SHIFT) + 1) << MappedCorpus.SEGMENT_SHIFT;
+      long bound = Math.min(previous + chunkSize, segmentEnd);
+      long limit = Math.min(to, bound + MappedCorpus.MAX_PATTERN);
+      while (bound < limit && isTokenByte(corpus.byteAt(bound - 1)) && isTokenByte(corpus.byteAt(bound))) {
+        bound++;
+      }
+      if (bound >= to) {
+        break;
+      }
+      if (count == bounds.length) {
+        bounds = Arrays.copyOf(bounds, count * 2);
+      }
+      bounds[count++] = bound;
+      previous = bound;
+    }
+    bounds = Arrays.copyOf(bounds, count + 1);
+    bounds[count] = to;
+    return bounds;
+  }
+
+  private static Map<String, Long> countChunk(MappedCorpus corpus, long from, long to) {
+    ChunkCounts counts = new ChunkCounts();
+    tokenize(corpus, from, to, counts::add);
+    return counts.toMap();
+  }
+
+  /** Receives each token of a chunk in place in its mapping, with {@link #hash} of its bytes. */
+  interface TokenSink {
+    void token(ByteBuffer buffer, int start, int length, int hash);
+  }
+
+  /** Passes every token in {@code [from, to)}, a range from {@link #chunkBounds}, to the sink. */
+  static void tokenize(MappedCorpus corpus, long from, long to, TokenSink sink) {
+    if (from >= to) {
+      return;
+    }
+    long segmentStart = from & -(long) MappedCorpus.SEGMENT_SIZE;
+    ByteBuffer buffer = corpus.segment((int) (from >>> MappedCorpus.SEGMENT_SHIFT));
+    int end = (int) (to - segmentStart);
+    int start = -1;
+    int hash = 0;
+    for (int i = (int) (from - segmentStart); i <= end; i++) {
+      byte b = i < end ? buffer.get(i) : (byte) ' ';
+      if (isTokenByte(b)) {
+        if (start < 0) {
+          start = i;
+          hash = 0;
+        }
+        hash = 31 * hash + b;
+      } else if (start >= 0) {
+        sink.token(buffer, start, i - start, hash);
+        start = -1;
+      }
+    }
+  }
+
+  /** The hash {@link #tokenize} passes along for a token with these bytes. */
+  static int hash(byte[] token) {
+    int hash = 0;
+    for (byte b : token) {
+      hash = 31 * hash + b;
+    }
+    return hash;
+  }
+
+  private static Map<String, Long> merge(Map<String, Long> left, Map<String, Long> right) {
+    Map<String, Long> into = left.size() >= right.size() ? left : right;
+    Map<String, Long> from = into == left ? right : left;
+    for (Map.Entry<String, Long> entry : from.entrySet()) {
+      into.merge(entry.getKey(), entry.getValue(), Long::sum);
+    }
+    return into;
+  }
+
+  /**
+   * Open-addressing counts keyed by token bytes, compared in place in the mapped buffer, so only
+   * the first occurrence of a token in a chunk allocates anything.
+   */
+  private static final class ChunkCounts {
+    int[] hashes = new int[1024];
+    byte[][] keys = new byte[1024][];
+    long[] counts = new long[1024];
+    int size;
+
+    void add(ByteBuffer buffer, int start, int length, int hash) {
+      hash ^= hash >>> 16;
+      int mask = keys.length - 1;
+      int slot = hash & mask;
+      for (byte[] key; (key = keys[slot]) != null; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && equals(key, buffer, start, length)) {
+          counts[slot]++;
+          return;
+        }
+      }
+      byte[] key = new byte[length];
+      buffer.get(start, key);
+      keys[slot] = key;
+      hashes[slot] = hash;
+      counts[slot] = 1;
+      if (++size * 2 > keys.length) {
+        resize();
+      }
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int start, int length) {
+      if (key.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (key[i] != buffer.get(start + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void resize() {
+      int[] oldHashes = hashes;
+      byte[][] oldKeys = keys;
+      long[] oldCounts = counts;
+      hashes = new int[oldKeys.length * 2];
+      keys = new byte[oldKeys.length * 2][];
+      counts = new long[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = oldHashes[i] & mask;
+          while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          hashes[slot] = oldHashes[i];
+          keys[slot] = oldKeys[i];
+          counts[slot] = oldCounts[i];
+        }
+      }
+    }
+
+    Map<String, Long> toMap() {
+      Map<String, Long> map = new HashMap<>(size * 2);
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != null) {
+          map.put(new String(keys[i], StandardCharsets.ISO_8859_1), counts[i]);
+        }
+      }
+      return map;
+    }
+  }
+
+  /** Whole-token occurrences of the word; 0 for anything that is not a single token. */
+  public long count(String word) {
+    Long count = counts.get(new String(word.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1));
+    return count == null ? 0 : count;
+  }
+
+  /** True if the word would be indexed as one token, i.e. {@link #count} can answer for it. */
+  public static boolean isToken(String word) {
+    byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length == 0) {
+      return false;
+    }
+    for (byte b : bytes) {
+      if (!isTokenByte(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isTokenByte(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b < 0;
+  }
+
+  public int distinctTokens() {
+    return counts.size();
+  }
+
+  public long tokens() {
+    return tokens.sum();
+  }
+}
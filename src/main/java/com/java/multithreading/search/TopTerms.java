@@ -0,0 +1,351 @@
+package com.java.multithreading.search;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The most frequent tokens of a corpus in one pass and bounded memory, with an error bound on
+ * every count. Each chunk of the corpus (cut as for the {@link TokenIndex}) is streamed through
+ * a Space-Saving summary of {@code capacity} counters and a Count-Min sketch; summaries are
+ * merged pairwise and truncated back to {@code capacity}, sketches are added up.
+ *
+ * Every reported term carries an upper bound, the smaller of the Space-Saving and sketch
+ * estimates, and a lower bound; the true count lies between them. Any token occurring more than
+ * {@link #unlistedBound()} times is among the candidates, so the ranking is certain wherever a
+ * term's lower bound is above the next term's count.
+ */
+public final class TopTerms {
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 1 << 16;
+  private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+  /** A token with bounds on how often it occurs. */
+  public static final class Term {
+    private final String term;
+    private final long count;
+    private final long lowerBound;
+
+    Term(String term, long count, long lowerBound) {
+      this.term = term;
+      this.count = count;
+      this.lowerBound = lowerBound;
+    }
+
+    public String term() {
+      return term;
+    }
+
+    /** Upper bound on the occurrences, and the estimate terms are ranked by. */
+    public long count() {
+      return count;
+    }
+
+    public long lowerBound() {
+      return lowerBound;
+    }
+  }
+
+  private final List<Term> terms;
+  private final long tokens;
+  private final long unlistedBound;
+
+  private TopTerms(List<Term> terms, long tokens, long unlistedBound) {
+    this.terms = terms;
+    this.tokens = tokens;
+    this.unlistedBound = unlistedBound;
+  }
+
+  /**
+   * @param capacity counters per summary; unlisted tokens occur at most about tokens / capacity
+   *                 times, so it should be well above k
+   */
+  public static TopTerms compute(MappedCorpus corpus, int k, int capacity) {
+    if (k < 1 || capacity < k) {
+      throw new IllegalArgumentException("need 1 <= k <= capacity, got k=" + k + " capacity=" + capacity);
+    }
+    long[] bounds = TokenIndex.chunkBounds(corpus, 0, corpus.size());
+    Summary summary = IntStream.range(0, bounds.length - 1).parallel()
+        .mapToObj(i -> summarize(corpus, bounds[i], bounds[i + 1], capacity))
+        .reduce((left, right) -> left.merge(right, capacity))
+        .orElseGet(() -> new Summary(new HashMap<>(), 0, 0, new long[SKETCH_DEPTH * SKETCH_WIDTH]));
+
+    List<Term> ranked = new ArrayList<>(summary.upper.size());
+    for (Map.Entry<String, Long> entry : summary.upper.entrySet()) {
+      byte[] bytes = entry.getKey().getBytes(StandardCharsets.ISO_8859_1);
+      long upper = Math.min(entry.getValue(), summary.estimate(TokenIndex.hash(bytes)));
+      long lower = summary.lower.get(entry.getKey());
+      ranked.add(new Term(new String(bytes, StandardCharsets.UTF_8), upper, lower));
+    }
+    ranked.sort((a, b) -> a.count != b.count ? Long.compare(b.count, a.count) : Long.compare(b.lowerBound, a.lowerBound));
+    return new TopTerms(Collections.unmodifiableList(new ArrayList<>(ranked.subList(0, Math.min(k, ranked.size())))),
+        summary.tokens, summary.unlisted);
+  }
+
+  private static Summary summarize(MappedCorpus corpus, long from, long to, int capacity) {
+    SpaceSaving counters = new SpaceSaving(capacity);
+    long[] sketch = new long[SKETCH_DEPTH * SKETCH_WIDTH];
+    long[] tokens = new long[1];
+    TokenIndex.tokenize(corpus, from, to, (buffer, start, length, hash) -> {
+      counters.offer(buffer, start, length, hash);
+      for (int row = 0; row < SKETCH_DEPTH; row++) {
+        sketch[row * SKETCH_WIDTH + column(hash, row)]++;
+      }
+      tokens[0]++;
+    });
+    return counters.toSummary(tokens[0], sketch);
+  }
+
+  private static int column(int hash, int row) {
+    long mixed = (hash + SEEDS[row]) * SEEDS[row];
+    mixed += mixed >>> 32;
+    return (int) mixed & (SKETCH_WIDTH - 1);
+  }
+
+  /** Up to {@code k} terms, most frequent first. */
+  public List<Term> terms() {
+    return terms;
+  }
+
+  /** Tokens in the corpus. */
+  public long tokens() {
+    return tokens;
+  }
+
+  /** Most occurrences any token missing from the candidates can have. */
+  public long unlistedBound() {
+    return unlistedBound;
+  }
+
+  /** Candidates with bounds, keyed by token bytes as Latin-1 like the {@link TokenIndex}. */
+  private static final class Summary {
+    final Map<String, Long> upper;
+    final Map<String, Long> lower;
+    final long tokens;
+    final long unlisted;
+    final long[] sketch;
+
+    Summary(Map<String, Long> upper, long tokens, long unlisted, long[] sketch) {
+      this.upper = upper;
+      this.lower = new HashMap<>();
+      this.tokens = tokens;
+      this.unlisted = unlisted;
+      this.sketch = sketch;
+    }
+
+    long estimate(int hash) {
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < SKETCH_DEPTH; row++) {
+        estimate = Math.min(estimate, sketch[row * SKETCH_WIDTH + column(hash, row)]);
+      }
+      return estimate;
+    }
+
+    /**
+     * A term missing from one side occurred there at most that side's unlisted bound times, and
+     * at least zero. Candidates beyond the capacity with the lowest upper bounds are dropped, and
+     * the largest dropped bound raises the unlisted bound.
+     */
+    Summary merge(Summary other, int capacity) {
+      Map<String, Long> union = new HashMap<>((upper.size() + other.upper.size()) * 2);
+      Summary merged = new Summary(union, tokens + other.tokens, unlisted + other.unlisted, sketch);
+      for (String term : upper.keySet()) {
+        Long theirs = other.upper.get(term);
+        union.put(term, upper.get(term) + (theirs != null ? theirs : other.unlisted));
+        merged.lower.put(term, lower.get(term) + other.lower.getOrDefault(term, 0L));
+      }
+      for (String term : other.upper.keySet()) {
+        if (!upper.containsKey(term)) {
+          union.put(term, other.upper.get(term) + unlisted);
+          merged.lower.put(term, other.lower.get(term));
+        }
+      }
+      for (int i = 0; i < sketch.length; i++) {
+        sketch[i] += other.sketch[i];
+      }
+      return merged.truncate(capacity);
+    }
+
+    private Summary truncate(int capacity) {
+      if (upper.size() <= capacity) {
+        return this;
+      }
+      long[] bounds = new long[upper.size()];
+      int i = 0;
+      for (long bound : upper.values()) {
+        bounds[i++] = bound;
+      }
+      Arrays.sort(bounds);
+      long cutoff = bounds[bounds.length - capacity];
+      int ties = 0;
+      for (int j = bounds.length - capacity; j < bounds.length && bounds[j] == cutoff; j++) {
+        ties++;
+      }
+      Map<String, Long> kept = new HashMap<>(capacity * 2);
+      long dropped = 0;
+      for (Map.Entry<String, Long> entry : upper.entrySet()) {
+        if (entry.getValue() > cutoff || (entry.getValue() == cutoff && ties-- > 0)) {
+          kept.put(entry.getKey(), entry.getValue());
+        } else {
+          dropped = Math.max(dropped, entry.getValue());
+        }
+      }
+      Summary truncated = new Summary(kept, tokens, Math.max(unlisted, dropped), sketch);
+      for (String term : kept.keySet()) {
+        truncated.lower.put(term, lower.get(term));
+      }
+      return truncated;
+    }
+  }
+
+  /**
+   * Space-Saving over one chunk: {@code capacity} counters, and when a token without one shows up
+   * the smallest counter is handed over to it, keeping its count as the newcomer's possible error.
+   * Counters sit in a min-heap by count, found by token bytes through an open-addressing table
+   * that compares in place in the mapped buffer like the {@link TokenIndex}'s chunk counts.
+   */
+  private static final class SpaceSaving {
+    final int capacity;
+    final byte[][] keys;
+    final int[] hashes;
+    final long[] counts;
+    final long[] errors;
+    final int[] heap;
+    final int[] heapIndex;
+    final int[] table;
+    final int mask;
+    int size;
+
+    SpaceSaving(int capacity) {
+      this.capacity = capacity;
+      keys = new byte[capacity][];
+      hashes = new int[capacity];
+      counts = new long[capacity];
+      errors = new long[capacity];
+      heap = new int[capacity];
+      heapIndex = new int[capacity];
+      int slots = Integer.highestOneBit(capacity) << 2;
+      table = new int[slots];
+      mask = slots - 1;
+    }
+
+    void offer(ByteBuffer buffer, int start, int length, int hash) {
+      hash ^= hash >>> 16;
+      int slot = hash & mask;
+      for (int id; (id = table[slot] - 1) >= 0; slot = (slot + 1) & mask) {
+        if (hashes[id] == hash && equals(keys[id], buffer, start, length)) {
+          counts[id]++;
+          siftDown(heapIndex[id]);
+          return;
+        }
+      }
+      int id;
+      if (size < capacity) {
+        id = size++;
+        heap[id] = id;
+        heapIndex[id] = id;
+      } else {
+        id = heap[0];
+        remove(id);
+        errors[id] = counts[id];
+        slot = hash & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+      }
+      if (keys[id] == null || keys[id].length != length) {
+        keys[id] = new byte[length];
+      }
+      buffer.get(start, keys[id]);
+      hashes[id] = hash;
+      counts[id]++;
+      table[slot] = id + 1;
+      siftUp(heapIndex[id]);
+      siftDown(heapIndex[id]);
+    }
+
+    private static boolean equals(byte[] key, ByteBuffer buffer, int start, int length) {
+      if (key.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (key[i] != buffer.get(start + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Unlinks the counter from the table, shifting later entries of its probe run back. */
+    private void remove(int id) {
+      int slot = hashes[id] & mask;
+      while (table[slot] - 1 != id) {
+        slot = (slot + 1) & mask;
+      }
+      int hole = slot;
+      for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+        int home = hashes[table[next] - 1] & mask;
+        if (((next - home) & mask) >= ((next - hole) & mask)) {
+          table[hole] = table[next];
+          hole = next;
+        }
+      }
+      table[hole] = 0;
+    }
+
+    private void siftUp(int index) {
+      int id = heap[index];
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (counts[heap[parent]] <= counts[id]) {
+          break;
+        }
+        place(heap[parent], index);
+        index = parent;
+      }
+      place(id, index);
+    }
+
+    private void siftDown(int index) {
+      int id = heap[index];
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+          child++;
+        }
+        if (counts[heap[child]] >= counts[id]) {
+          break;
+        }
+        place(heap[child], index);
+        index = child;
+      }
+      place(id, index);
+    }
+
+    private void place(int id, int index) {
+      heap[index] = id;
+      heapIndex[id] = index;
+    }
+
+    Summary toSummary(long tokens, long[] sketch) {
+      Map<String, Long> upper = new HashMap<>(size * 2);
+      Summary summary = new Summary(upper, tokens, size == capacity ? counts[heap[0]] : 0, sketch);
+      for (int id = 0; id < size; id++) {
+        String term = new String(keys[id], StandardCharsets.ISO_8859_1);
+        upper.put(term, counts[id]);
+        summary.lower.put(term, counts[id] - errors[id]);
+      }
+      return summary;
+    }
+  }
+}